@@ -0,0 +1,118 @@
+package org.example.bench;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.example.InMemoryMovieRepository;
+import org.example.MongoMovieRepository;
+import org.example.MovieRepository;
+import org.example.ReleaseDates;
+import org.example.SchemaBootstrap;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// Hot paths of the browser measured against either repository backend. The mongo backend
+// expects a disposable database at -Dbench.mongoUri (default mongodb://localhost:27017) and
+// loads it with the same synthetic catalog; 10M rows needs a large heap for the memory backend.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MovieRepositoryBenchmark {
+    private static final String[] WORDS = {"night", "day", "return", "city", "love", "war", "last",
+            "dark", "star", "river", "king", "ghost", "summer", "road", "secret", "house"};
+    private static final String[] GENRES = {"Drama", "Comedy", "Action", "Horror", "Sci-Fi", "Romance"};
+    private static final int USERS = 1000;
+    private static final int WATCHLIST_SIZE = 500;
+
+    @Param({"10000", "1000000", "10000000"})
+    public int rows;
+
+    @Param({"memory"})
+    public String backend;
+
+    private MovieRepository repository;
+    private MongoClient mongoClient;
+    private ObjectId[] movies;
+    private ObjectId[] users;
+    private Random random;
+
+    @Setup(Level.Trial)
+    public void load() {
+        if (backend.equals("mongo")) {
+            mongoClient = MongoClients.create(System.getProperty("bench.mongoUri", "mongodb://localhost:27017"));
+            mongoClient.getDatabase("Movie-Browser-Bench").drop();
+            SchemaBootstrap.start(mongoClient.getDatabase("Movie-Browser-Bench")).join();
+            repository = new MongoMovieRepository(mongoClient.getDatabase("Movie-Browser-Bench"), false, id -> { });
+        } else {
+            repository = new InMemoryMovieRepository();
+        }
+
+        random = new Random(42);
+        movies = new ObjectId[rows];
+        for (int i = 0; i < rows; i++) {
+            Document movie = new Document()
+                    .append("title", WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)] + " " + i)
+                    .append("releaseDate", ReleaseDates.toDate(LocalDate.of(1950 + random.nextInt(75), 1, 1)))
+                    .append("genre", GENRES[random.nextInt(GENRES.length)])
+                    .append("director", "Director " + random.nextInt(5000))
+                    .append("ratingSum", 0)
+                    .append("ratingCount", 0);
+            movies[i] = repository.addMovie(movie);
+        }
+        users = new ObjectId[USERS];
+        for (int u = 0; u < USERS; u++) {
+            users[u] = new ObjectId();
+            for (int i = 0; i < WATCHLIST_SIZE; i++) {
+                ObjectId movie = movies[random.nextInt(rows)];
+                repository.addToWatchlist(users[u], movie);
+                repository.addRating(users[u], movie, 1 + random.nextInt(10), "");
+            }
+        }
+        if (repository instanceof MongoMovieRepository) {
+            ((MongoMovieRepository) repository).startSearchIndexBuild(null);
+            while (!repository.isSearchIndexed()) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        if (repository instanceof InMemoryMovieRepository) {
+            ((InMemoryMovieRepository) repository).close();
+        }
+        if (mongoClient != null) {
+            mongoClient.close();
+        }
+    }
+
+    @Benchmark
+    public void search(Blackhole blackhole) {
+        repository.search(WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)],
+                1000, blackhole::consume);
+    }
+
+    @Benchmark
+    public double averageRating() {
+        return repository.averageRating(movies[random.nextInt(rows)]);
+    }
+
+    @Benchmark
+    public void watchlistLoad(Blackhole blackhole) {
+        repository.watchlist(users[random.nextInt(USERS)], blackhole::consume);
+    }
+
+    // A fresh user each call, so every call is a real insert
+    @Benchmark
+    public boolean ratingInsert() {
+        return repository.addRating(new ObjectId(), movies[random.nextInt(rows)], 1 + random.nextInt(10), "");
+    }
+}
@@ -0,0 +1,119 @@
+package org.example.bench;
+
+import org.bson.types.ObjectId;
+import org.example.ItemRecommender;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// How long the item-item model takes to build from a synthetic ratings matrix as the fork/join
+// parallelism grows, and how fast a built model answers. Run with -p parallelism=... to match
+// the cores of the machine; 10M ratings need a few GB of heap.
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RecommenderBenchmark {
+    // One rater per this many ratings, one movie per this many
+    private static final int RATINGS_PER_USER = 100;
+    private static final int RATINGS_PER_MOVIE = 200;
+
+    @Param({"1000000", "10000000"})
+    public int ratings;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int parallelism;
+
+    private ObjectId[] users;
+    private ObjectId[] movies;
+    private final Random random = new Random(7);
+
+    @Setup(Level.Trial)
+    public void generate() {
+        users = new ObjectId[Math.max(1, ratings / RATINGS_PER_USER)];
+        movies = new ObjectId[Math.max(1, ratings / RATINGS_PER_MOVIE)];
+        for (int i = 0; i < users.length; i++) {
+            users[i] = new ObjectId();
+        }
+        for (int i = 0; i < movies.length; i++) {
+            movies[i] = new ObjectId();
+        }
+    }
+
+    // The same unbuilt matrix every time. Movie popularity is skewed and each movie has a
+    // quality that ratings scatter around, so the similarities aren't pure noise.
+    ItemRecommender loadRatings() {
+        ItemRecommender recommender = new ItemRecommender(parallelism);
+        Random data = new Random(42);
+        BitSet seen = new BitSet(movies.length);
+        int perUser = Math.min(ratings / users.length, movies.length);
+        for (ObjectId user : users) {
+            int taste = data.nextInt(3) - 1;
+            seen.clear();
+            for (int r = 0; r < perUser; r++) {
+                int movie = (int) (movies.length * Math.pow(data.nextDouble(), 2));
+                if (seen.get(movie)) {
+                    continue;
+                }
+                seen.set(movie);
+                int quality = 3 + movie % 6;
+                int rating = Math.max(1, Math.min(10, quality + taste + data.nextInt(3) - 1));
+                recommender.addRating(user, movies[movie], rating);
+            }
+        }
+        return recommender;
+    }
+
+    // A fresh matrix before each build
+    @State(Scope.Benchmark)
+    public static class Unbuilt {
+        ItemRecommender recommender;
+
+        @Setup(Level.Invocation)
+        public void load(RecommenderBenchmark benchmark) {
+            recommender = benchmark.loadRatings();
+        }
+
+        @TearDown(Level.Invocation)
+        public void close() {
+            recommender.close();
+        }
+    }
+
+    // One model built per trial, for queries
+    @State(Scope.Benchmark)
+    public static class Built {
+        ItemRecommender recommender;
+
+        @Setup(Level.Trial)
+        public void build(RecommenderBenchmark benchmark) {
+            recommender = benchmark.loadRatings();
+            recommender.buildModel();
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            recommender.close();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 1)
+    @Measurement(iterations = 3)
+    public ItemRecommender build(Unbuilt model) {
+        model.recommender.buildModel();
+        return model.recommender;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public List<ObjectId> recommend(Built model) {
+        return model.recommender.recommend(users[random.nextInt(users.length)], 50);
+    }
+}
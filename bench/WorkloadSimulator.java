@@ -0,0 +1,416 @@
+package org.example.bench;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import org.bson.Document;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.example.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+// Headless load generator: thousands of simulated users sign up, log in and then run a
+// weighted mix of the browser's own operations (search, watchlist add, rating, the watchlist
+// and rated lists, logging in again) with think time in between, each user on its own virtual
+// thread where the JVM has them. Operations go through the same MovieRepository/UserAccounts
+// calls Main makes, so the report measures what real sessions cost. Throughput and
+// p50/p99/p999 latency per operation, measured after the warmup, are written to a JSON file
+// together with the per-command Mongo figures from OperationMetrics.
+//
+// Usage: WorkloadSimulator [--users n] [--duration s] [--warmup s] [--think-ms n]
+//                          [--mix browse|mixed|write] [--movies n] [--database name] [--out file]
+// The Mongo client is configured like the browser (MongoConfig), so mongo.pool.maxSize and the
+// rest can be set to what a deployment would use. It writes users, ratings and, if the catalog
+// has fewer than --movies movies, synthetic movies, so point --database at a disposable one.
+public class WorkloadSimulator {
+    private static final String[] WORDS = {"night", "day", "return", "city", "love", "war", "last",
+            "dark", "star", "river", "king", "ghost", "summer", "road", "secret", "house"};
+    private static final String[] GENRES = {"Drama", "Comedy", "Action", "Horror", "Sci-Fi", "Romance"};
+    private static final String PASSWORD = "load-test";
+    // As many rows as a search in the browser asks for
+    private static final int SEARCH_LIMIT = 1000;
+    private static final int SAMPLE_SIZE = 10000;
+    private static final JsonWriterSettings REPORT_JSON = JsonWriterSettings.builder().indent(true).build();
+
+    public enum Operation {
+        SEARCH("search"), WATCHLIST_ADD("watchlist-add"), RATE("rate"), WATCHLIST("watchlist"),
+        RATED("rated"), LOGIN("login"), SIGNUP("signup");
+
+        final String label;
+
+        Operation(String label) {
+            this.label = label;
+        }
+    }
+
+    // Relative weights of the operations a logged-in user picks from; signup happens once
+    public enum Mix {
+        BROWSE(70, 10, 5, 8, 5, 2),
+        MIXED(40, 20, 20, 9, 9, 2),
+        WRITE(20, 35, 35, 4, 4, 2);
+
+        final int[] weights;
+        final int total;
+
+        Mix(int... weights) {
+            this.weights = weights;
+            this.total = Arrays.stream(weights).sum();
+        }
+
+        Operation pick(Random random) {
+            int n = random.nextInt(total);
+            for (int i = 0; i < weights.length; i++) {
+                n -= weights[i];
+                if (n < 0) {
+                    return Operation.values()[i];
+                }
+            }
+            throw new IllegalStateException();
+        }
+    }
+
+    private final MovieRepository repository;
+    private final UserAccounts accounts;
+    private final OperationMetrics metrics;
+    private final Mix mix;
+    private final int users;
+    private final long thinkMillis;
+    private final Map<Operation, LatencyHistogram> results = new EnumMap<>(Operation.class);
+    private final Set<Operation> failureLogged = ConcurrentHashMap.newKeySet();
+    private final AtomicLong completed = new AtomicLong();
+    private final String runId = Long.toString(System.currentTimeMillis(), 36);
+    private final Function<MovieRow, Object[]> rowMapper = movie -> new Object[]{movie.id(), movie.title(),
+            movie.releaseDate(), movie.genre(), movie.director(), movie.averageRating()};
+    private List<MovieRow> sample;
+    private List<String> searchWords;
+    private volatile long measureFrom;
+    private volatile long deadline;
+
+    public WorkloadSimulator(MovieRepository repository, UserAccounts accounts, OperationMetrics metrics,
+                             Mix mix, int users, long thinkMillis) {
+        this.repository = repository;
+        this.accounts = accounts;
+        this.metrics = metrics;
+        this.mix = mix;
+        this.users = users;
+        this.thinkMillis = thinkMillis;
+        for (Operation operation : Operation.values()) {
+            results.put(operation, new LatencyHistogram());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int users = 1000;
+        int durationSeconds = 60;
+        int warmupSeconds = 10;
+        long thinkMillis = 500;
+        Mix mix = Mix.MIXED;
+        int movies = 20000;
+        String databaseName = "Movie-Browser-Load";
+        Path out = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--users":
+                    users = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--warmup":
+                    warmupSeconds = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--think-ms":
+                    thinkMillis = Long.parseLong(args[i + 1]);
+                    break;
+                case "--mix":
+                    mix = Mix.valueOf(args[i + 1].toUpperCase());
+                    break;
+                case "--movies":
+                    movies = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--database":
+                    databaseName = args[i + 1];
+                    break;
+                case "--out":
+                    out = Paths.get(args[i + 1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (out == null) {
+            out = Paths.get("workload-" + mix.name().toLowerCase() + "-"
+                    + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".json");
+        }
+
+        OperationMetrics metrics = new OperationMetrics();
+        MongoConfig config = MongoConfig.load();
+        try (MongoClient mongoClient = MongoClients.create(config.clientSettings()
+                .addCommandListener(metrics)
+                .build())) {
+            MongoDatabase database = mongoClient.getDatabase(databaseName);
+            SchemaBootstrap.start(database).join();
+            MongoMovieRepository repository = new MongoMovieRepository(database, false, id -> { },
+                    config.browseReadPreference(), config.primaryAfterWriteMillis());
+            seedMovies(database, repository, movies);
+            repository.startSearchIndexBuild(null);
+            System.out.println("Building the search index...");
+            while (!repository.isSearchIndexed()) {
+                Thread.sleep(200);
+            }
+
+            WorkloadSimulator simulator = new WorkloadSimulator(repository, repository, metrics, mix, users,
+                    thinkMillis);
+            Document report = simulator.run(durationSeconds, warmupSeconds);
+            report.append("database", databaseName)
+                    .append("mongoPoolMaxSize", Integer.parseInt(config.get("mongo.pool.maxSize", "20")));
+            Files.write(out, report.toJson(REPORT_JSON).getBytes(StandardCharsets.UTF_8));
+            System.out.println("Report written to " + out.toAbsolutePath());
+        }
+    }
+
+    // Tops the catalog up with synthetic movies, shaped like the benchmark's
+    private static void seedMovies(MongoDatabase database, MovieRepository repository, int target) {
+        long existing = database.getCollection("Movies").countDocuments();
+        Random random = new Random(42);
+        for (long i = existing; i < target; i++) {
+            repository.addMovie(new Document()
+                    .append("title", WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)]
+                            + " " + i)
+                    .append("releaseDate", ReleaseDates.toDate(ReleaseDates.parse((1950 + random.nextInt(75))
+                            + "-01-01")))
+                    .append("genre", GENRES[random.nextInt(GENRES.length)])
+                    .append("director", "Director " + random.nextInt(5000))
+                    .append("ratingSum", 0)
+                    .append("ratingCount", 0)
+                    .append("avgRating", 0.0));
+            if ((i + 1) % 10000 == 0) {
+                System.out.println("Seeded " + (i + 1) + " movies");
+            }
+        }
+    }
+
+    // Users start spread over the warmup, so signups don't all land at once; only operations
+    // started after the warmup are counted in the report
+    public Document run(int durationSeconds, int warmupSeconds) throws Exception {
+        // The first movies by _id: enough variety for search terms and write targets
+        sample = repository.moviesAfter(MovieSort.DEFAULT, FacetFilter.NONE, null, SAMPLE_SIZE);
+        if (sample.isEmpty()) {
+            throw new IllegalStateException("The catalog is empty");
+        }
+        Set<String> words = new TreeSet<>();
+        for (MovieRow movie : sample) {
+            for (String word : movie.title().toLowerCase().split("\\W+")) {
+                if (word.length() > 2 && !word.chars().allMatch(Character::isDigit)) {
+                    words.add(word);
+                }
+            }
+        }
+        searchWords = new ArrayList<>(words.isEmpty() ? List.of(WORDS) : words);
+
+        Date startedAt = new Date();
+        long start = System.nanoTime();
+        measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        deadline = measureFrom + TimeUnit.SECONDS.toNanos(durationSeconds);
+        boolean virtual = true;
+        ExecutorService sessions;
+        try {
+            sessions = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            // Java 17: one platform thread per user
+            virtual = false;
+            sessions = Executors.newFixedThreadPool(users, r -> {
+                Thread t = new Thread(r, "load-user");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        System.out.printf("%d users, %s mix, %s threads, %ds warmup + %ds measured%n", users,
+                mix.name().toLowerCase(), virtual ? "virtual" : "platform", warmupSeconds, durationSeconds);
+
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        progress.scheduleAtFixedRate(() -> System.out.printf("%ds: %d operations%n",
+                TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), completed.get()), 10, 10, TimeUnit.SECONDS);
+        long rampNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        for (int user = 0; user < users; user++) {
+            long startAt = start + rampNanos * user / users;
+            int number = user;
+            sessions.execute(() -> session(number, startAt));
+        }
+        sessions.shutdown();
+        sessions.awaitTermination(durationSeconds + warmupSeconds + 60L, TimeUnit.SECONDS);
+        progress.shutdownNow();
+        return report(startedAt, durationSeconds, warmupSeconds, virtual);
+    }
+
+    private void session(int number, long startAt) {
+        Random random = ThreadLocalRandom.current();
+        try {
+            TimeUnit.NANOSECONDS.sleep(startAt - System.nanoTime());
+            String username = "load-" + runId + "-" + number;
+            measure(Operation.SIGNUP, () -> accounts.signup(username, PASSWORD, username + "@example.com"));
+            UserState state = new UserState(rowMapper);
+            ObjectId userId = measure(Operation.LOGIN, () -> accounts.login(username, PASSWORD, state));
+            if (userId == null) {
+                return;
+            }
+            UserState[] current = {state};
+            while (System.nanoTime() < deadline) {
+                Operation operation = mix.pick(random);
+                // Bound to the user like the movie server's requests, so only their own writes
+                // pin their reads to the primary
+                measure(operation, () -> ReadContext.callAs(userId,
+                        () -> perform(operation, username, userId, current, random)));
+                think(random);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Same calls, and the same duplicate checks against the session's UserState, as Main
+    private Object perform(Operation operation, String username, ObjectId userId, UserState[] state, Random random) {
+        switch (operation) {
+            case SEARCH: {
+                String term = searchWords.get(random.nextInt(searchWords.size()));
+                if (random.nextBoolean()) {
+                    term += " " + searchWords.get(random.nextInt(searchWords.size()));
+                }
+                int[] rows = {0};
+                repository.search(term, SEARCH_LIMIT, movie -> rows[0]++);
+                return rows[0];
+            }
+            case WATCHLIST_ADD: {
+                MovieRow movie = sample.get(random.nextInt(sample.size()));
+                if (state[0].isWatchlisted(movie.id())) {
+                    return false;
+                }
+                boolean added = repository.addToWatchlist(userId, movie.id());
+                state[0].addWatchlisted(movie);
+                return added;
+            }
+            case RATE: {
+                MovieRow movie = sample.get(random.nextInt(sample.size()));
+                if (state[0].isRated(movie.id())) {
+                    return false;
+                }
+                int rating = 1 + random.nextInt(10);
+                boolean inserted = repository.addRating(userId, movie.id(), rating,
+                        random.nextInt(4) == 0 ? "Simulated review " + random.nextInt(1000) : "");
+                state[0].addRated(movie.withUserRating(rating));
+                return inserted;
+            }
+            case WATCHLIST: {
+                int[] rows = {0};
+                repository.watchlist(userId, movie -> rows[0]++);
+                return rows[0];
+            }
+            case RATED: {
+                int[] rows = {0};
+                repository.ratedMovies(userId, movie -> rows[0]++);
+                return rows[0];
+            }
+            case LOGIN: {
+                UserState fresh = new UserState(rowMapper);
+                ObjectId loggedIn = accounts.login(username, PASSWORD, fresh);
+                if (loggedIn != null) {
+                    state[0] = fresh;
+                }
+                return loggedIn;
+            }
+            default:
+                throw new IllegalArgumentException("Not a session operation: " + operation);
+        }
+    }
+
+    // Exponential think time around the mean, so users don't move in lockstep
+    private void think(Random random) throws InterruptedException {
+        if (thinkMillis <= 0) {
+            return;
+        }
+        long nanos = (long) (-Math.log(1 - random.nextDouble()) * TimeUnit.MILLISECONDS.toNanos(thinkMillis));
+        TimeUnit.NANOSECONDS.sleep(Math.min(nanos, deadline - System.nanoTime()));
+    }
+
+    // Times the operation through OperationMetrics too, so its Mongo commands are attributed to it
+    private <T> T measure(Operation operation, OperationMetrics.Action<T> work) {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = metrics.time(operation.label, work);
+            failed = false;
+            return result;
+        } catch (Exception e) {
+            // One stack trace per operation; the rest only count as errors
+            if (failureLogged.add(operation)) {
+                e.printStackTrace();
+            }
+            return null;
+        } finally {
+            if (start >= measureFrom && start < deadline) {
+                results.get(operation).record(System.nanoTime() - start, failed);
+            }
+            completed.incrementAndGet();
+        }
+    }
+
+    private Document report(Date startedAt, int durationSeconds, int warmupSeconds, boolean virtual) {
+        Document operations = new Document();
+        long total = 0;
+        System.out.printf("%-14s %10s %10s %9s %9s %9s %8s%n", "operation", "count", "ops/s", "p50 ms", "p99 ms",
+                "p999 ms", "errors");
+        for (Map.Entry<Operation, LatencyHistogram> entry : results.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            if (h.count() == 0) {
+                continue;
+            }
+            total += h.count();
+            double perSecond = h.count() / (double) durationSeconds;
+            operations.append(entry.getKey().label, new Document("count", h.count())
+                    .append("errors", h.errors())
+                    .append("perSecond", perSecond)
+                    .append("meanMs", h.meanMillis())
+                    .append("p50Ms", h.percentileMillis(0.50))
+                    .append("p99Ms", h.percentileMillis(0.99))
+                    .append("p999Ms", h.percentileMillis(0.999))
+                    .append("maxMs", h.maxMillis()));
+            System.out.printf("%-14s %10d %10.1f %9.2f %9.2f %9.2f %8d%n", entry.getKey().label, h.count(), perSecond,
+                    h.percentileMillis(0.50), h.percentileMillis(0.99), h.percentileMillis(0.999), h.errors());
+        }
+        return new Document("startedAt", startedAt)
+                .append("mix", mix.name().toLowerCase())
+                .append("weights", mixWeights())
+                .append("users", users)
+                .append("thinkMs", thinkMillis)
+                .append("warmupSeconds", warmupSeconds)
+                .append("durationSeconds", durationSeconds)
+                .append("virtualThreads", virtual)
+                .append("javaVersion", System.getProperty("java.version"))
+                .append("cores", Runtime.getRuntime().availableProcessors())
+                .append("totalPerSecond", total / (double) durationSeconds)
+                .append("operations", operations)
+                // Covers the warmup too, as the client's listener can't be reset
+                .append("mongo", metrics.toDocument());
+    }
+
+    private Document mixWeights() {
+        Document weights = new Document();
+        for (int i = 0; i < mix.weights.length; i++) {
+            weights.append(Operation.values()[i].label, mix.weights[i]);
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,154 @@
+package org.example;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Puts a search result cache and a short-lived genre list in front of another repository, so
+// everyone sharing this instance (every session on the movie server) shares the hits. Writes
+// made through it invalidate exactly what they could change, as the desktop browser's cache does.
+public class CachedMovieRepository implements MovieRepository {
+    private static final long GENRES_TTL_MILLIS = 60 * 1000;
+
+    private final MovieRepository delegate;
+    private final SearchResultCache searchCache;
+    private volatile List<String> genres;
+    private volatile long genresLoadedAt;
+
+    public CachedMovieRepository(MovieRepository delegate, SearchResultCache searchCache) {
+        this.delegate = delegate;
+        this.searchCache = searchCache;
+    }
+
+    public SearchResultCache searchCache() {
+        return searchCache;
+    }
+
+    @Override
+    public long countMovies(FacetFilter filter) {
+        return delegate.countMovies(filter);
+    }
+
+    @Override
+    public List<MovieRow> moviesAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return delegate.moviesAfter(sort, filter, after, limit);
+    }
+
+    @Override
+    public List<MovieRow> movieKeysAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return delegate.movieKeysAfter(sort, filter, after, limit);
+    }
+
+    @Override
+    public MovieRow movieKeyAt(MovieSort sort, FacetFilter filter, long offset) {
+        return delegate.movieKeyAt(sort, filter, offset);
+    }
+
+    @Override
+    public FacetCounts facets(FacetFilter filter) {
+        return delegate.facets(filter);
+    }
+
+    @Override
+    public boolean isSearchIndexed() {
+        return delegate.isSearchIndexed();
+    }
+
+    // Keyed on term and limit. Cached rows are {id, MovieRow}, so invalidateMovie finds them by
+    // column 0.
+    @Override
+    public void search(String term, int limit, Consumer<MovieRow> sink) {
+        String key = SearchResultCache.normalize(term) + "#" + limit;
+        List<Object[]> cached = searchCache.get(key);
+        if (cached != null) {
+            for (Object[] row : cached) {
+                sink.accept((MovieRow) row[1]);
+            }
+            return;
+        }
+        boolean cacheable = delegate.isSearchIndexed();
+        List<Object[]> rows = new ArrayList<>();
+        delegate.search(term, limit, movie -> {
+            sink.accept(movie);
+            rows.add(new Object[]{movie.id(), movie});
+        });
+        if (cacheable) {
+            searchCache.put(key, rows);
+        }
+    }
+
+    @Override
+    public double averageRating(ObjectId movieId) {
+        return delegate.averageRating(movieId);
+    }
+
+    @Override
+    public void topRated(String genre, int minVotes, int limit, Consumer<MovieRow> sink) {
+        delegate.topRated(genre, minVotes, limit, sink);
+    }
+
+    @Override
+    public List<String> genres() {
+        List<String> cached = genres;
+        if (cached == null || System.currentTimeMillis() - genresLoadedAt > GENRES_TTL_MILLIS) {
+            cached = List.copyOf(delegate.genres());
+            genres = cached;
+            genresLoadedAt = System.currentTimeMillis();
+        }
+        return cached;
+    }
+
+    @Override
+    public void watchlist(ObjectId userId, Consumer<MovieRow> sink) {
+        delegate.watchlist(userId, sink);
+    }
+
+    @Override
+    public void ratedMovies(ObjectId userId, Consumer<MovieRow> sink) {
+        delegate.ratedMovies(userId, sink);
+    }
+
+    @Override
+    public void loadUserState(ObjectId userId, UserState state) {
+        delegate.loadUserState(userId, state);
+    }
+
+    @Override
+    public void recommended(ObjectId userId, int limit, Consumer<MovieRow> sink) {
+        delegate.recommended(userId, limit, sink);
+    }
+
+    // Only searches the new movie would show up in are stale
+    @Override
+    public ObjectId addMovie(Document movie) {
+        ObjectId id = delegate.addMovie(movie);
+        MovieSearchIndex added = new MovieSearchIndex();
+        added.add(movie);
+        searchCache.invalidateTerms(key -> !added.search(key.substring(0, key.lastIndexOf('#')), 1).isEmpty());
+        genres = null;
+        return id;
+    }
+
+    // Pages move as reviews are written, so they aren't cached
+    @Override
+    public List<Review> reviews(ObjectId movieId, ObjectId before, int limit) {
+        return delegate.reviews(movieId, before, limit);
+    }
+
+    @Override
+    public boolean addToWatchlist(ObjectId userId, ObjectId movieId) {
+        return delegate.addToWatchlist(userId, movieId);
+    }
+
+    @Override
+    public boolean addRating(ObjectId userId, ObjectId movieId, int rating, String review) {
+        boolean inserted = delegate.addRating(userId, movieId, rating, review);
+        if (inserted) {
+            searchCache.invalidateMovie(movieId);
+        }
+        return inserted;
+    }
+}
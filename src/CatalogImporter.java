@@ -0,0 +1,502 @@
+package org.example;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.InsertManyOptions;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Bulk loads a CSV, TSV or JSON-lines file into Movies. One thread streams records off disk in
+// chunks, a pool parses chunks into the same documents the Add Movie dialog writes, and a pool
+// of writers inserts them with unordered insertMany. Bounded queues between the stages give
+// backpressure. Every record gets an _id derived from the import's start time, a random prefix
+// picked for the import and its record number, and a checkpoint file records those and how far
+// the import got, so a crashed import can be rerun and picks up where it stopped without
+// duplicating anything.
+//
+// Usage: CatalogImporter <file> [mongoUri] [--format csv|tsv|jsonl] [--force]
+public class CatalogImporter {
+    private static final int CHUNK_SIZE = 1000;
+    private static final String DEFAULT_URI = "mongodb://localhost:27017";
+
+    private static final Map<String, List<String>> COLUMN_ALIASES = new HashMap<>();
+
+    static {
+        COLUMN_ALIASES.put("title", Arrays.asList("title", "primarytitle", "name", "movie_title"));
+        COLUMN_ALIASES.put("releaseDate", Arrays.asList("releasedate", "release_date", "released", "year", "startyear"));
+        COLUMN_ALIASES.put("genre", Arrays.asList("genre", "genres"));
+        COLUMN_ALIASES.put("director", Arrays.asList("director", "directors", "director_name"));
+    }
+
+    private static final class Chunk {
+        final long sequence;
+        final long firstRecord;
+        final List<String> records;
+        List<Document> documents;
+
+        Chunk(long sequence, long firstRecord, List<String> records) {
+            this.sequence = sequence;
+            this.firstRecord = firstRecord;
+            this.records = records;
+        }
+    }
+
+    private static final Chunk END = new Chunk(-1, -1, Collections.emptyList());
+
+    private final Path file;
+    private final String format;
+    private final MongoCollection<Document> movies;
+    private final FacetDictionary facets;
+    private final Path checkpointFile;
+    private final int parsers = Runtime.getRuntime().availableProcessors();
+    private final int writers = Math.max(2, parsers / 2);
+    private final BlockingQueue<Chunk> rawChunks = new ArrayBlockingQueue<>(parsers * 2);
+    private final BlockingQueue<Chunk> parsedChunks = new ArrayBlockingQueue<>(writers * 2);
+    private final AtomicLong recordsWritten = new AtomicLong();
+    private final AtomicLong recordsSkipped = new AtomicLong();
+    private final AtomicLong untypedDates = new AtomicLong();
+    private final Set<Long> finishedChunks = new HashSet<>();
+    private final Map<Long, Long> chunkEnds = new HashMap<>();
+    private volatile Throwable failure;
+    private long nextChunkToCheckpoint;
+    private volatile long checkpointedRecords;
+    private int importTimestamp;
+    // Random per import, so two imports started in the same second get different ids; null for
+    // an import a version without prefixes checkpointed
+    private Integer importPrefix;
+    // Duplicate ids are only expected when resuming, from records written after the checkpoint
+    private boolean resuming;
+    private String[] header;
+
+    public CatalogImporter(Path file, String format, MongoCollection<Document> movies, FacetDictionary facets) {
+        this.file = file;
+        this.format = format;
+        this.movies = movies;
+        this.facets = facets;
+        this.checkpointFile = file.resolveSibling(file.getFileName() + ".import-checkpoint");
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: CatalogImporter <file> [mongoUri] [--format csv|tsv|jsonl] [--force]");
+            System.exit(2);
+        }
+        Path file = Paths.get(args[0]);
+        String uri = DEFAULT_URI;
+        String format = null;
+        boolean force = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--format") && i + 1 < args.length) {
+                format = args[++i];
+            } else if (args[i].equals("--force")) {
+                force = true;
+            } else {
+                uri = args[i];
+            }
+        }
+        if (format == null) {
+            String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+            format = name.endsWith(".tsv") ? "tsv" : name.endsWith(".json") || name.endsWith(".jsonl") ? "jsonl" : "csv";
+        }
+
+        try (MongoClient mongoClient = MongoClients.create(uri)) {
+            MongoDatabase database = mongoClient.getDatabase("Movie-Browser");
+            CatalogImporter importer = new CatalogImporter(file, format, database.getCollection("Movies"),
+                    new FacetDictionary(database.getCollection(FacetDictionary.COLLECTION)));
+            importer.run(force);
+            // Cheaper than counting each insert, and exact even after a resumed import
+            FacetBackfill.recount(database);
+        }
+    }
+
+    public void run(boolean force) throws Exception {
+        Properties checkpoint = loadCheckpoint();
+        if (Boolean.parseBoolean(checkpoint.getProperty("complete")) && !force) {
+            System.out.println(file + " was already imported; pass --force to import it again");
+            return;
+        }
+        if (force || checkpoint.isEmpty()) {
+            checkpoint.clear();
+        }
+        resuming = checkpoint.containsKey("timestamp");
+        importTimestamp = Integer.parseInt(checkpoint.getProperty("timestamp",
+                String.valueOf(System.currentTimeMillis() / 1000)));
+        importPrefix = resuming && !checkpoint.containsKey("prefix") ? null
+                : Integer.valueOf(checkpoint.getProperty("prefix", String.valueOf(new SecureRandom().nextInt())));
+        checkpointedRecords = Long.parseLong(checkpoint.getProperty("records", "0"));
+        if (checkpointedRecords > 0) {
+            System.out.println("Resuming after record " + checkpointedRecords);
+        }
+        saveCheckpoint(false);
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < parsers; i++) {
+            threads.add(startThread("import-parse-" + i, this::parseLoop));
+        }
+        for (int i = 0; i < writers; i++) {
+            threads.add(startThread("import-write-" + i, this::writeLoop));
+        }
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "import-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        progress.scheduleAtFixedRate(() -> printProgress(start), 1, 1, TimeUnit.SECONDS);
+
+        try {
+            try {
+                readRecords(checkpointedRecords);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                for (int i = 0; i < parsers; i++) {
+                    rawChunks.put(END);
+                }
+            }
+            for (Thread thread : threads.subList(0, parsers)) {
+                thread.join();
+            }
+            for (int i = 0; i < writers; i++) {
+                parsedChunks.put(END);
+            }
+            for (Thread thread : threads.subList(parsers, threads.size())) {
+                thread.join();
+            }
+        } finally {
+            progress.shutdownNow();
+        }
+
+        if (failure != null) {
+            throw new IllegalStateException("Import stopped after record " + checkpointedRecords
+                    + "; rerun to resume", failure);
+        }
+        saveCheckpoint(true);
+        printProgress(start);
+        System.out.println("Import finished");
+    }
+
+    // Streams records, skipping those a previous run already committed
+    private void readRecords(long skip) throws Exception {
+        long recordNumber = 0;
+        long sequence = 0;
+        List<String> records = new ArrayList<>(CHUNK_SIZE);
+        long firstRecord = 0;
+        synchronized (finishedChunks) {
+            nextChunkToCheckpoint = 0;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            if (!format.equals("jsonl")) {
+                String headerLine = readRecord(reader);
+                if (headerLine == null) {
+                    return;
+                }
+                header = splitFields(headerLine);
+            }
+            String record;
+            while ((record = readRecord(reader)) != null && failure == null) {
+                if (record.isBlank()) {
+                    continue;
+                }
+                recordNumber++;
+                if (recordNumber <= skip) {
+                    continue;
+                }
+                if (records.isEmpty()) {
+                    firstRecord = recordNumber;
+                }
+                records.add(record);
+                if (records.size() == CHUNK_SIZE) {
+                    rawChunks.put(new Chunk(sequence++, firstRecord, records));
+                    records = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+        }
+        if (!records.isEmpty()) {
+            rawChunks.put(new Chunk(sequence, firstRecord, records));
+        }
+    }
+
+    // A CSV record can span lines when a quoted field contains a newline
+    private String readRecord(BufferedReader reader) throws IOException {
+        String line = reader.readLine();
+        if (line == null || format.equals("jsonl")) {
+            return line;
+        }
+        StringBuilder record = new StringBuilder(line);
+        while (countQuotes(record) % 2 != 0) {
+            String next = reader.readLine();
+            if (next == null) {
+                break;
+            }
+            record.append('\n').append(next);
+        }
+        return record.toString();
+    }
+
+    private void parseLoop() {
+        try {
+            while (true) {
+                Chunk chunk = rawChunks.take();
+                if (chunk == END) {
+                    return;
+                }
+                List<Document> documents = new ArrayList<>(chunk.records.size());
+                for (int i = 0; i < chunk.records.size(); i++) {
+                    long recordNumber = chunk.firstRecord + i;
+                    try {
+                        Document movie = parse(chunk.records.get(i));
+                        if (movie == null) {
+                            recordsSkipped.incrementAndGet();
+                            continue;
+                        }
+                        movie.put("_id", recordId(recordNumber));
+                        documents.add(movie);
+                    } catch (Exception e) {
+                        System.err.println("Skipping record " + recordNumber + ": " + e.getMessage());
+                        recordsSkipped.incrementAndGet();
+                    }
+                }
+                chunk.documents = documents;
+                parsedChunks.put(chunk);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Chunk chunk = parsedChunks.take();
+                if (chunk == END) {
+                    return;
+                }
+                if (failure == null) {
+                    write(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            failure = e;
+            e.printStackTrace();
+            // Keep draining so the reader and parsers can finish
+            try {
+                while (parsedChunks.take() != END) {
+                    // discard
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void write(Chunk chunk) {
+        int inserted = chunk.documents.size();
+        if (!chunk.documents.isEmpty()) {
+            try {
+                movies.insertMany(chunk.documents, new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // When resuming, duplicate ids are records the stopped run wrote after its last
+                // checkpoint: the ids carry this import's timestamp and prefix, so nothing else
+                // could have written them. In a fresh import they are a real clash.
+                for (BulkWriteError error : e.getWriteErrors()) {
+                    if (!resuming || ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                        throw e;
+                    }
+                }
+                inserted = e.getWriteResult().getInsertedCount();
+            }
+        }
+        recordsWritten.addAndGet(inserted);
+        finishChunk(chunk);
+    }
+
+    // Advances the checkpoint over the longest run of finished chunks
+    private void finishChunk(Chunk chunk) {
+        synchronized (finishedChunks) {
+            finishedChunks.add(chunk.sequence);
+            chunkEnds.put(chunk.sequence, chunk.firstRecord + chunk.records.size() - 1);
+            boolean advanced = false;
+            while (finishedChunks.remove(nextChunkToCheckpoint)) {
+                checkpointedRecords = chunkEnds.remove(nextChunkToCheckpoint);
+                nextChunkToCheckpoint++;
+                advanced = true;
+            }
+            if (advanced) {
+                try {
+                    saveCheckpoint(false);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    private Document parse(String record) {
+        Document source;
+        if (format.equals("jsonl")) {
+            source = Document.parse(record);
+        } else {
+            String[] fields = splitFields(record);
+            source = new Document();
+            for (int i = 0; i < header.length && i < fields.length; i++) {
+                source.put(header[i].trim().toLowerCase(Locale.ROOT), fields[i]);
+            }
+        }
+
+        String title = field(source, "title");
+        if (title == null || title.isBlank()) {
+            return null;
+        }
+        // Same shape as the Add Movie dialog. A release date that doesn't parse is kept as
+        // text rather than dropping the movie.
+        Document movie = new Document()
+                .append("title", title);
+        String releaseDateText = field(source, "releaseDate");
+        LocalDate releaseDate = ReleaseDates.parse(releaseDateText);
+        if (releaseDate != null) {
+            movie.append("releaseDate", ReleaseDates.toDate(releaseDate));
+        } else if (releaseDateText != null && !releaseDateText.isEmpty()) {
+            movie.append("releaseDateText", releaseDateText);
+            untypedDates.incrementAndGet();
+        }
+        movie.append("genre", orEmpty(field(source, "genre")))
+                .append("director", orEmpty(field(source, "director")))
+                .append("addedDate", new Date())
+                .append("ratingSum", 0)
+                .append("ratingCount", 0)
+                .append("avgRating", 0.0);
+        facets.encode(movie);
+        return movie;
+    }
+
+    private static String field(Document source, String name) {
+        for (String alias : COLUMN_ALIASES.get(name)) {
+            for (Map.Entry<String, Object> entry : source.entrySet()) {
+                if (entry.getKey().equalsIgnoreCase(alias) && entry.getValue() != null) {
+                    String value = entry.getValue().toString().trim();
+                    // IMDb-style dumps use \N for missing values
+                    return value.equals("\\N") ? null : value;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private String[] splitFields(String record) {
+        if (format.equals("tsv")) {
+            return record.split("\t", -1);
+        }
+        List<String> fields = new ArrayList<>();
+        StringBuilder current = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    current.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    current.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(current.toString());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        fields.add(current.toString());
+        return fields.toArray(new String[0]);
+    }
+
+    private static int countQuotes(CharSequence text) {
+        int quotes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    // Import start time, the import's prefix and the record number, so reruns produce the same ids
+    private ObjectId recordId(long recordNumber) {
+        if (importPrefix == null) {
+            return new ObjectId(ByteBuffer.allocate(12).putInt(importTimestamp).putLong(recordNumber).array());
+        }
+        if (recordNumber > 0xFFFFFFFFL) {
+            throw new IllegalStateException("More than 2^32 records in one import");
+        }
+        return new ObjectId(ByteBuffer.allocate(12).putInt(importTimestamp).putInt(importPrefix)
+                .putInt((int) recordNumber).array());
+    }
+
+    private Properties loadCheckpoint() throws IOException {
+        Properties checkpoint = new Properties();
+        if (Files.exists(checkpointFile)) {
+            try (InputStream in = Files.newInputStream(checkpointFile)) {
+                checkpoint.load(in);
+            }
+        }
+        return checkpoint;
+    }
+
+    private void saveCheckpoint(boolean complete) throws IOException {
+        Properties checkpoint = new Properties();
+        checkpoint.setProperty("timestamp", String.valueOf(importTimestamp));
+        if (importPrefix != null) {
+            checkpoint.setProperty("prefix", String.valueOf(importPrefix));
+        }
+        checkpoint.setProperty("records", String.valueOf(checkpointedRecords));
+        checkpoint.setProperty("complete", String.valueOf(complete));
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            checkpoint.store(out, "CatalogImporter progress for " + file.getFileName());
+        }
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void printProgress(long start) {
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 0.001);
+        long written = recordsWritten.get();
+        System.out.printf("%,d movies written, %,d skipped, %,d unparsed release dates, %,.0f movies/s,"
+                        + " checkpoint at record %,d%n",
+                written, recordsSkipped.get(), untypedDates.get(), written / seconds, checkpointedRecords);
+    }
+
+    private static Thread startThread(String name, Runnable body) {
+        Thread thread = new Thread(body, name);
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,399 @@
+package org.example;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.Consumer;
+
+// Read-only binary copy of the Movies catalog and its rating aggregates, opened with
+// memory-mapped I/O so startup doesn't wait on MongoDB. Layout:
+//
+//   header    magic, last change time, movie count, dictionary sizes, section offsets
+//   dicts     genre strings, then director strings (int length + UTF-8)
+//   rows      one fixed 48-byte record per movie, sorted by _id:
+//             id(12) title(4) releaseDate(4) genre(4) director(4) addedDate(8) ratingSum(8) ratingCount(4)
+//   heap      title and release date strings (int length + UTF-8), referenced by offset
+//
+// Genre and director are dictionary codes into the string tables. The whole file has to stay
+// under 2 GB, the limit of a single mapping.
+//
+// Each refresh writes a new version next to the configured path (catalog.snap.1, .2, ...) and
+// the highest one that opens is used, so a file that is still mapped is never replaced, which
+// Windows refuses. Older versions are deleted once nothing maps them.
+public class CatalogSnapshot {
+    private static final long MAGIC = 0x4D42534E41503031L; // "MBSNAP01"
+    private static final int HEADER_SIZE = 48;
+    private static final int ROW_SIZE = 48;
+    // addedDate and lastRatedDate come from each client's clock, and a write stamped earlier can
+    // land after a later one was read, so the delta query reaches this far behind lastChange
+    private static final long DELTA_OVERLAP_MS = 10 * 60 * 1000;
+
+    private final MappedByteBuffer buffer;
+    private final long version;
+    private final long lastChange;
+    private final int count;
+    private final String[] genres;
+    private final String[] directors;
+    private final int rowsOffset;
+    private final int heapOffset;
+
+    private CatalogSnapshot(MappedByteBuffer buffer, long version) {
+        this.buffer = buffer;
+        this.version = version;
+        if (buffer.getLong(0) != MAGIC) {
+            throw new IllegalStateException("Not a catalog snapshot");
+        }
+        lastChange = buffer.getLong(8);
+        count = buffer.getInt(16);
+        int genreCount = buffer.getInt(20);
+        int directorCount = buffer.getInt(24);
+        rowsOffset = (int) buffer.getLong(32);
+        heapOffset = (int) buffer.getLong(40);
+
+        int position = HEADER_SIZE;
+        genres = new String[genreCount];
+        for (int i = 0; i < genreCount; i++) {
+            genres[i] = stringAt(position);
+            position += 4 + buffer.getInt(position);
+        }
+        directors = new String[directorCount];
+        for (int i = 0; i < directorCount; i++) {
+            directors[i] = stringAt(position);
+            position += 4 + buffer.getInt(position);
+        }
+    }
+
+    public static Path defaultPath() {
+        String configured = System.getProperty("moviebrowser.snapshot");
+        return configured != null ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".movie-browser", "catalog.snap");
+    }
+
+    // The newest version that opens, or null when there is no usable snapshot yet. The
+    // unnumbered file is what versions before numbering wrote, read as version 0.
+    public static CatalogSnapshot openIfExists(Path file) {
+        try {
+            for (Map.Entry<Long, Path> version : versions(file).descendingMap().entrySet()) {
+                CatalogSnapshot snapshot = open(version.getValue(), version.getKey());
+                if (snapshot != null) {
+                    return snapshot;
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    private static CatalogSnapshot open(Path file, long version) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new CatalogSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), version);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static TreeMap<Long, Path> versions(Path file) throws IOException {
+        TreeMap<Long, Path> versions = new TreeMap<>();
+        if (Files.exists(file)) {
+            versions.put(0L, file);
+        }
+        Path directory = file.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return versions;
+        }
+        String prefix = file.getFileName() + ".";
+        try (DirectoryStream<Path> siblings = Files.newDirectoryStream(directory, prefix + "*")) {
+            for (Path sibling : siblings) {
+                String suffix = sibling.getFileName().toString().substring(prefix.length());
+                if (!suffix.isEmpty() && suffix.chars().allMatch(Character::isDigit)) {
+                    versions.put(Long.parseLong(suffix), sibling);
+                }
+            }
+        }
+        return versions;
+    }
+
+    // Best effort: a version still mapped here or by another browser can't be deleted on
+    // Windows, so it is left for a later refresh
+    private static void deleteOlderVersions(Path file, long keep) {
+        try {
+            for (Path old : versions(file).headMap(keep).values()) {
+                try {
+                    Files.deleteIfExists(old);
+                } catch (IOException e) {
+                    // Still mapped
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // Distinct genres, sorted, straight from the dictionary
+    public List<String> genres() {
+        List<String> sorted = new ArrayList<>(Arrays.asList(genres));
+        sorted.remove("");
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    // Newest addedDate/lastRatedDate the snapshot has seen
+    public long lastChange() {
+        return lastChange;
+    }
+
+    public ObjectId id(int row) {
+        byte[] bytes = new byte[12];
+        buffer.get(rowsOffset + row * ROW_SIZE, bytes);
+        return new ObjectId(bytes);
+    }
+
+    // Index of the first row with an _id greater than after
+    public int firstAfter(ObjectId after) {
+        if (after == null) {
+            return 0;
+        }
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (id(mid).compareTo(after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Row index for the id, or -1
+    public int find(ObjectId id) {
+        int row = firstAfter(id) - 1;
+        return row >= 0 && id(row).equals(id) ? row : -1;
+    }
+
+    public Document movie(int row) {
+        int base = rowsOffset + row * ROW_SIZE;
+        return new Document("_id", id(row))
+                .append("title", stringAt(heapOffset + buffer.getInt(base + 12)))
+                .append("releaseDate", stringAt(heapOffset + buffer.getInt(base + 16)))
+                .append("genre", genres[buffer.getInt(base + 20)])
+                .append("director", directors[buffer.getInt(base + 24)])
+                .append("addedDate", new Date(buffer.getLong(base + 28)))
+                .append("ratingSum", buffer.getLong(base + 36))
+                .append("ratingCount", buffer.getInt(base + 44));
+    }
+
+    // Same movie as movie(row), without the Document or the fields the tables don't show
+    public MovieRow movieRow(int row) {
+        int base = rowsOffset + row * ROW_SIZE;
+        return new MovieRow(id(row),
+                stringAt(heapOffset + buffer.getInt(base + 12)),
+                stringAt(heapOffset + buffer.getInt(base + 16)),
+                genres[buffer.getInt(base + 20)],
+                directors[buffer.getInt(base + 24)],
+                buffer.getLong(base + 36),
+                buffer.getInt(base + 44),
+                null);
+    }
+
+    // Whether the row already holds what the snapshot would store for the movie
+    private boolean matches(int row, Document movie) {
+        MovieRow stored = movieRow(row);
+        Number sum = movie.get("ratingSum", Number.class);
+        Number ratings = movie.get("ratingCount", Number.class);
+        return stored.title().equals(orEmpty(movie.getString("title")))
+                && stored.releaseDate().equals(ReleaseDates.text(movie.get("releaseDate")))
+                && stored.genre().equals(orEmpty(movie.getString("genre")))
+                && stored.director().equals(orEmpty(movie.getString("director")))
+                && stored.ratingSum() == (sum == null ? 0 : sum.longValue())
+                && stored.ratingCount() == (ratings == null ? 0 : ratings.intValue());
+    }
+
+    private String stringAt(int position) {
+        byte[] bytes = new byte[buffer.getInt(position)];
+        buffer.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Brings the snapshot up to date with everything added or rated since it was written, or
+    // exports the whole catalog when there is no snapshot yet. Each changed movie is also handed
+    // to onChanged. Returns the new snapshot, already mapped.
+    public static CatalogSnapshot refresh(Path file, CatalogSnapshot current, MongoCollection<Document> movies,
+                                          Consumer<Document> onChanged) throws IOException {
+        TreeMap<ObjectId, Document> changed = new TreeMap<>();
+        List<Document> changedMovies = new ArrayList<>();
+        Iterator<Document> source;
+        if (current == null) {
+            source = movies.find().sort(Sorts.ascending("_id")).iterator();
+        } else {
+            Date since = new Date(current.lastChange - DELTA_OVERLAP_MS);
+            for (Document movie : movies.find(Filters.or(
+                    Filters.gt("addedDate", since), Filters.gt("lastRatedDate", since)))) {
+                // The overlap brings back movies the snapshot already has as they are
+                int row = current.find(movie.getObjectId("_id"));
+                if (row < 0 || !current.matches(row, movie)) {
+                    changed.put(movie.getObjectId("_id"), movie);
+                }
+            }
+            if (changed.isEmpty()) {
+                return current;
+            }
+            changedMovies.addAll(changed.values());
+            source = mergeWithChanges(current, changed);
+        }
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Map.Entry<Long, Path> newest = versions(file).lastEntry();
+        long version = Math.max(current == null ? 0 : current.version, newest == null ? 0 : newest.getKey()) + 1;
+        try {
+            write(temp, source, current == null ? onChanged : movie -> { });
+        } finally {
+            if (source instanceof MongoCursor) {
+                ((MongoCursor<?>) source).close();
+            }
+        }
+        changedMovies.forEach(onChanged);
+        Path next = file.resolveSibling(file.getFileName() + "." + version);
+        Files.move(temp, next, StandardCopyOption.ATOMIC_MOVE);
+        CatalogSnapshot snapshot = open(next, version);
+        if (snapshot == null) {
+            throw new IOException("Could not open the snapshot just written to " + next);
+        }
+        deleteOlderVersions(file, version);
+        return snapshot;
+    }
+
+    // Existing rows in _id order with changed movies replacing or slotting in between them
+    private static Iterator<Document> mergeWithChanges(CatalogSnapshot current, TreeMap<ObjectId, Document> changed) {
+        return new Iterator<Document>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < current.count || !changed.isEmpty();
+            }
+
+            @Override
+            public Document next() {
+                if (row < current.count) {
+                    ObjectId id = current.id(row);
+                    Map.Entry<ObjectId, Document> first = changed.firstEntry();
+                    if (first == null || first.getKey().compareTo(id) > 0) {
+                        return current.movie(row++);
+                    }
+                    if (first.getKey().equals(id)) {
+                        row++;
+                    }
+                }
+                return changed.pollFirstEntry().getValue();
+            }
+        };
+    }
+
+    private static void write(Path file, Iterator<Document> movies, Consumer<Document> onEach) throws IOException {
+        Path rowsFile = Files.createTempFile(file.getParent(), "rows", ".tmp");
+        Path heapFile = Files.createTempFile(file.getParent(), "heap", ".tmp");
+        Map<String, Integer> genreCodes = new LinkedHashMap<>();
+        Map<String, Integer> directorCodes = new LinkedHashMap<>();
+        long lastChange = 0;
+        int count = 0;
+
+        try {
+            try (DataOutputStream rows = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(rowsFile), 1 << 16));
+                 DataOutputStream heap = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(heapFile), 1 << 16))) {
+                while (movies.hasNext()) {
+                    Document movie = movies.next();
+                    onEach.accept(movie);
+                    rows.write(movie.getObjectId("_id").toByteArray());
+                    rows.writeInt(heap.size());
+                    writeString(heap, movie.getString("title"));
+                    rows.writeInt(heap.size());
+                    writeString(heap, ReleaseDates.text(movie.get("releaseDate")));
+                    rows.writeInt(genreCodes.computeIfAbsent(orEmpty(movie.getString("genre")), g -> genreCodes.size()));
+                    rows.writeInt(directorCodes.computeIfAbsent(orEmpty(movie.getString("director")), d -> directorCodes.size()));
+                    Date added = movie.getDate("addedDate");
+                    rows.writeLong(added == null ? 0 : added.getTime());
+                    Number sum = movie.get("ratingSum", Number.class);
+                    Number ratings = movie.get("ratingCount", Number.class);
+                    rows.writeLong(sum == null ? 0 : sum.longValue());
+                    rows.writeInt(ratings == null ? 0 : ratings.intValue());
+
+                    lastChange = Math.max(lastChange, added == null ? 0 : added.getTime());
+                    Date rated = movie.getDate("lastRatedDate");
+                    lastChange = Math.max(lastChange, rated == null ? 0 : rated.getTime());
+                    count++;
+                }
+            }
+
+            ByteArrayOutputStream dictBytes = new ByteArrayOutputStream();
+            try (DataOutputStream dicts = new DataOutputStream(dictBytes)) {
+                for (String genre : genreCodes.keySet()) {
+                    writeString(dicts, genre);
+                }
+                for (String director : directorCodes.keySet()) {
+                    writeString(dicts, director);
+                }
+            }
+            long rowsOffset = HEADER_SIZE + dictBytes.size();
+            long heapOffset = rowsOffset + Files.size(rowsFile);
+            if (heapOffset + Files.size(heapFile) > Integer.MAX_VALUE) {
+                throw new IOException("Catalog too large for a single snapshot mapping");
+            }
+
+            try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .putLong(MAGIC).putLong(lastChange).putInt(count)
+                        .putInt(genreCodes.size()).putInt(directorCodes.size()).putInt(0)
+                        .putLong(rowsOffset).putLong(heapOffset);
+                header.flip();
+                out.write(header);
+                out.write(ByteBuffer.wrap(dictBytes.toByteArray()));
+                append(out, rowsFile);
+                append(out, heapFile);
+            }
+        } finally {
+            Files.deleteIfExists(rowsFile);
+            Files.deleteIfExists(heapFile);
+        }
+    }
+
+    private static void append(FileChannel out, Path part) throws IOException {
+        try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = orEmpty(value).getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String orEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
@@ -0,0 +1,101 @@
+package org.example;
+
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.Supplier;
+
+// Live view of OperationMetrics: latency percentiles per action and per command, how many
+// commands each action fires, plus whatever extra status lines the caller supplies.
+public class DiagnosticsDialog extends JDialog {
+    private static final String[] COLUMNS = {"Kind", "Name", "Count", "Errors", "Error rate",
+            "p50 ms", "p95 ms", "p99 ms", "Max ms"};
+
+    private final OperationMetrics metrics;
+    private final Supplier<List<String>> extraLines;
+    private final DefaultTableModel tableModel;
+    private final JTextArea details = new JTextArea(8, 60);
+
+    public DiagnosticsDialog(Frame owner, OperationMetrics metrics, Supplier<List<String>> extraLines) {
+        super(owner, "Diagnostics", false);
+        this.metrics = metrics;
+        this.extraLines = extraLines;
+        setLayout(new BorderLayout(5, 5));
+
+        tableModel = new DefaultTableModel(COLUMNS, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        details.setEditable(false);
+
+        JButton refreshButton = new JButton("Refresh");
+        JButton exportButton = new JButton("Export...");
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttonPanel.add(refreshButton);
+        buttonPanel.add(exportButton);
+
+        add(new JScrollPane(new JTable(tableModel)), BorderLayout.CENTER);
+        JPanel bottom = new JPanel(new BorderLayout());
+        bottom.add(new JScrollPane(details), BorderLayout.CENTER);
+        bottom.add(buttonPanel, BorderLayout.SOUTH);
+        add(bottom, BorderLayout.SOUTH);
+
+        refreshButton.addActionListener(e -> refresh());
+        exportButton.addActionListener(e -> export());
+        Timer timer = new Timer(2000, e -> refresh());
+        timer.start();
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosed(java.awt.event.WindowEvent e) {
+                timer.stop();
+            }
+        });
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+
+        refresh();
+        setSize(900, 500);
+        setLocationRelativeTo(owner);
+    }
+
+    private void refresh() {
+        tableModel.setRowCount(0);
+        for (Object[] row : metrics.rows()) {
+            for (int i = 5; i < row.length; i++) {
+                row[i] = String.format("%.1f", (Double) row[i]);
+            }
+            tableModel.addRow(row);
+        }
+        StringBuilder text = new StringBuilder("Commands per action run:\n");
+        for (String line : metrics.commandsPerAction()) {
+            text.append("  ").append(line).append('\n');
+        }
+        text.append("Slow commands logged: ").append(metrics.slowQueryCount()).append('\n');
+        for (String line : extraLines.get()) {
+            text.append(line).append('\n');
+        }
+        details.setText(text.toString());
+    }
+
+    private void export() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new java.io.File("movie-browser-metrics.json"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        Path file = chooser.getSelectedFile().toPath();
+        try {
+            metrics.export(file);
+            JOptionPane.showMessageDialog(this, "Metrics exported to " + file);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this,
+                    "Error exporting metrics: " + ex.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
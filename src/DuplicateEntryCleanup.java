@@ -0,0 +1,121 @@
+package org.example;
+
+import com.mongodb.client.*;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.*;
+
+// Removes the duplicate (userId, movieId) entries older versions could write to Watchlist and
+// Ratings before those indexes were unique, keeping the oldest, which is the one the
+// setOnInsert upserts kept answering with. Every duplicate rating was also added to its movie's
+// ratingSum/ratingCount, so those movies are recounted from Ratings afterwards.
+//
+// Movies to recount are recorded in the Migrations collection before their duplicates are
+// deleted and cleared once recounted, so a run that stops anywhere is finished by the next one.
+// SchemaBootstrap runs this before making the indexes unique.
+public class DuplicateEntryCleanup {
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+        String uri = args.length > 0 ? args[0] : "mongodb://localhost:27017";
+        try (MongoClient mongoClient = MongoClients.create(uri)) {
+            MongoDatabase database = mongoClient.getDatabase("Movie-Browser");
+            for (String collection : Arrays.asList("Watchlist", "Ratings")) {
+                long removed = run(database, collection);
+                System.out.println("Removed " + removed + " duplicate entries from " + collection);
+            }
+        }
+    }
+
+    public static long run(MongoDatabase database, String collectionName) {
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+        MongoCollection<Document> migrations = database.getCollection("Migrations");
+        boolean ratings = collectionName.equals("Ratings");
+        String checkpointId = "duplicates:" + collectionName;
+
+        // Sorted by _id first so each group lists its oldest entry first
+        List<Document> pipeline = Arrays.asList(
+                new Document("$sort", new Document("_id", 1)),
+                new Document("$group", new Document("_id",
+                        new Document("userId", "$userId").append("movieId", "$movieId"))
+                        .append("ids", new Document("$push", "$_id"))
+                        .append("count", new Document("$sum", 1))),
+                new Document("$match", new Document("count", new Document("$gt", 1))));
+
+        long removed = 0;
+        List<Object> extras = new ArrayList<>();
+        List<Object> movieIds = new ArrayList<>();
+        for (Document group : collection.aggregate(pipeline).allowDiskUse(true)) {
+            List<?> ids = group.getList("ids", Object.class);
+            extras.addAll(ids.subList(1, ids.size()));
+            movieIds.add(group.get("_id", Document.class).get("movieId"));
+            if (extras.size() >= BATCH_SIZE) {
+                removed += delete(collection, migrations, checkpointId, ratings, extras, movieIds);
+            }
+        }
+        if (!extras.isEmpty()) {
+            removed += delete(collection, migrations, checkpointId, ratings, extras, movieIds);
+        }
+
+        if (ratings) {
+            recount(database, migrations, checkpointId);
+        }
+        return removed;
+    }
+
+    private static long delete(MongoCollection<Document> collection, MongoCollection<Document> migrations,
+                               String checkpointId, boolean ratings, List<Object> extras, List<Object> movieIds) {
+        if (ratings) {
+            migrations.updateOne(eq("_id", checkpointId), Updates.addEachToSet("recount", movieIds),
+                    new UpdateOptions().upsert(true));
+        }
+        long deleted = collection.deleteMany(in("_id", extras)).getDeletedCount();
+        extras.clear();
+        movieIds.clear();
+        return deleted;
+    }
+
+    // Same sums as RatingAggregateBackfill, for just the recorded movies. The write only applies
+    // if the movie's count hasn't moved since it was read, so a rating made meanwhile sends the
+    // movie round again instead of being overwritten.
+    private static void recount(MongoDatabase database, MongoCollection<Document> migrations, String checkpointId) {
+        Document checkpoint = migrations.find(eq("_id", checkpointId)).first();
+        if (checkpoint == null) {
+            return;
+        }
+        MongoCollection<Document> movies = database.getCollection("Movies");
+        MongoCollection<Document> ratings = database.getCollection("Ratings");
+        for (Object movieId : checkpoint.getList("recount", Object.class, new ArrayList<>())) {
+            while (true) {
+                Document movie = movies.find(eq("_id", movieId))
+                        .projection(Projections.include("ratingCount")).first();
+                if (movie == null) {
+                    break;
+                }
+                Document totals = ratings.aggregate(Arrays.asList(
+                        new Document("$match", new Document("movieId", movieId)),
+                        new Document("$group", new Document("_id", null)
+                                .append("ratingSum", new Document("$sum", "$rating"))
+                                .append("ratingCount", new Document("$sum", 1))))).first();
+                long sum = totals == null ? 0 : totals.get("ratingSum", Number.class).longValue();
+                long count = totals == null ? 0 : totals.get("ratingCount", Number.class).longValue();
+                if (movies.updateOne(and(eq("_id", movieId), eq("ratingCount", movie.get("ratingCount"))),
+                        Updates.combine(
+                                Updates.set("ratingSum", sum),
+                                Updates.set("ratingCount", count),
+                                Updates.set("avgRating", count == 0 ? 0.0 : (double) sum / count)))
+                        .getMatchedCount() > 0) {
+                    break;
+                }
+            }
+            migrations.updateOne(eq("_id", checkpointId), Updates.pull("recount", movieId));
+        }
+        migrations.deleteOne(and(eq("_id", checkpointId), size("recount", 0)));
+    }
+}
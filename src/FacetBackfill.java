@@ -0,0 +1,107 @@
+package org.example;
+
+import com.mongodb.client.*;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.*;
+
+// Maintenance job that dictionary-encodes genre/director and fills year on movies written before
+// facets existed, then recounts every FacetValues entry from Movies. Safe to rerun; the recount
+// also repairs counts that drifted, e.g. after movies were edited or deleted by hand.
+public class FacetBackfill {
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+        String uri = args.length > 0 ? args[0] : "mongodb://localhost:27017";
+        try (MongoClient mongoClient = MongoClients.create(uri)) {
+            MongoDatabase database = mongoClient.getDatabase("Movie-Browser");
+            long encoded = run(database);
+            System.out.println("Encoded facets on " + encoded + " movies");
+            recount(database);
+            System.out.println("Recounted facet values");
+        }
+    }
+
+    public static long run(MongoDatabase database) {
+        MongoCollection<Document> movies = database.getCollection("Movies");
+        FacetDictionary dictionary = new FacetDictionary(database.getCollection(FacetDictionary.COLLECTION));
+
+        long encoded = 0;
+        ObjectId after = null;
+        while (true) {
+            List<Document> batch = movies.find(after == null
+                            ? exists("genreCode", false)
+                            : and(exists("genreCode", false), gt("_id", after)))
+                    .projection(Projections.include("genre", "director", "releaseDate", "releaseDateText"))
+                    .sort(Sorts.ascending("_id"))
+                    .limit(BATCH_SIZE)
+                    .into(new ArrayList<>());
+            if (batch.isEmpty()) {
+                return encoded;
+            }
+            List<WriteModel<Document>> updates = new ArrayList<>(batch.size());
+            for (Document movie : batch) {
+                Document codes = new Document()
+                        .append("genre", movie.get("genre") == null ? "" : movie.get("genre").toString())
+                        .append("director", movie.get("director") == null ? "" : movie.get("director").toString())
+                        // A typed date as stored, so its year is read in UTC; text that never
+                        // parsed as a date can still name a year
+                        .append("releaseDate", movie.containsKey("releaseDate") ? movie.get("releaseDate")
+                                : ReleaseDates.text(movie.get("releaseDateText")));
+                dictionary.encode(codes);
+                List<Bson> sets = new ArrayList<>(Arrays.asList(
+                        Updates.set("genreCode", codes.getInteger("genreCode")),
+                        Updates.set("directorCode", codes.getInteger("directorCode"))));
+                if (codes.containsKey("year")) {
+                    sets.add(Updates.set("year", codes.getInteger("year")));
+                }
+                updates.add(new UpdateOneModel<>(eq("_id", movie.get("_id")), Updates.combine(sets)));
+            }
+            movies.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+            encoded += batch.size();
+            after = batch.get(batch.size() - 1).getObjectId("_id");
+        }
+    }
+
+    // Sets every entry's count to what Movies currently holds: one grouping per field
+    public static void recount(MongoDatabase database) {
+        MongoCollection<Document> movies = database.getCollection("Movies");
+        MongoCollection<Document> values = database.getCollection(FacetDictionary.COLLECTION);
+        values.updateMany(exists("field"), Updates.set("count", 0L));
+        for (String field : FacetDictionary.FIELDS) {
+            String grouped = field.equals("year") ? "year" : FacetDictionary.codeField(field);
+            List<WriteModel<Document>> batch = new ArrayList<>();
+            for (Document group : movies.aggregate(Arrays.asList(
+                    new Document("$match", new Document(grouped, new Document("$ne", null))),
+                    new Document("$group", new Document("_id", "$" + grouped)
+                            .append("count", new Document("$sum", 1L))))).allowDiskUse(true)) {
+                Object value = group.get("_id");
+                long count = group.get("count", Number.class).longValue();
+                if (field.equals("year")) {
+                    batch.add(new UpdateOneModel<>(eq("_id", "year|" + value), Updates.combine(
+                            Updates.set("count", count),
+                            Updates.setOnInsert("field", "year"),
+                            Updates.setOnInsert("key", value.toString()),
+                            Updates.setOnInsert("label", value.toString())), new UpdateOptions().upsert(true)));
+                } else {
+                    batch.add(new UpdateOneModel<>(and(eq("field", field), eq("code", value)),
+                            Updates.set("count", count)));
+                }
+                if (batch.size() == BATCH_SIZE) {
+                    values.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+                    batch.clear();
+                }
+            }
+            if (!batch.isEmpty()) {
+                values.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package org.example;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// LRU cache of facet counts per filter, bounded by entry count and age. Inserts update every
+// cached entry the new movie matches instead of dropping them.
+public class FacetCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<FacetFilter, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private static final class Entry {
+        final FacetCounts counts;
+        final long createdAt;
+
+        Entry(FacetCounts counts, long createdAt) {
+            this.counts = counts;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public FacetCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public synchronized FacetCounts get(FacetFilter filter) {
+        Entry entry = entries.get(filter);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+            entries.remove(filter);
+            return null;
+        }
+        return entry == null ? null : entry.counts;
+    }
+
+    public synchronized void put(FacetFilter filter, FacetCounts counts) {
+        entries.put(filter, new Entry(counts, System.currentTimeMillis()));
+        if (entries.size() > maxEntries) {
+            entries.remove(entries.keySet().iterator().next());
+        }
+    }
+
+    // Keeps each entry's age, so the TTL still bounds how long an approximate list can live
+    public synchronized void onInsert(String genre, String director, String releaseDate) {
+        for (Map.Entry<FacetFilter, Entry> cached : entries.entrySet()) {
+            if (cached.getKey().matches(genre, director, releaseDate)) {
+                Entry entry = cached.getValue();
+                cached.setValue(new Entry(entry.counts.withMovie(genre, director, FacetFilter.yearOf(releaseDate)),
+                        entry.createdAt));
+            }
+        }
+    }
+}
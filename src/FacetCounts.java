@@ -0,0 +1,82 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.function.IntFunction;
+
+// How many movies match a FacetFilter, and how they split by genre, director and year. Each
+// facet lists at most LIMIT values, most common first.
+public record FacetCounts(long total, List<Value> genres, List<Value> directors, List<Value> years) {
+    public static final int LIMIT = 50;
+
+    // key is the normalized dictionary key (the year for years), label how it is shown
+    public record Value(String key, String label, long count) {
+        @Override
+        public String toString() {
+            return (label.isEmpty() ? "(none)" : label) + " (" + count + ")";
+        }
+    }
+
+    // The counts after one more matching movie, for keeping cached counts current on insert.
+    // A value that wasn't listed only joins a facet that still has room.
+    public FacetCounts withMovie(String genre, String director, Integer year) {
+        return new FacetCounts(total + 1,
+                increment(genres, FacetFilter.key(genre), genre),
+                increment(directors, FacetFilter.key(director), director),
+                year == null ? years : increment(years, year.toString(), year.toString()));
+    }
+
+    private static List<Value> increment(List<Value> values, String key, String label) {
+        List<Value> updated = new ArrayList<>(values.size() + 1);
+        boolean found = false;
+        for (Value value : values) {
+            if (value.key().equals(key)) {
+                updated.add(new Value(key, value.label(), value.count() + 1));
+                found = true;
+            } else {
+                updated.add(value);
+            }
+        }
+        if (!found && updated.size() < LIMIT) {
+            updated.add(new Value(key, label == null ? "" : label.trim(), 1));
+        }
+        updated.sort(Comparator.comparingLong(Value::count).reversed());
+        return updated;
+    }
+
+    // Counts by scanning every row, for the backends that hold the catalog locally
+    public static FacetCounts scan(int size, IntFunction<MovieRow> rowAt, FacetFilter filter) {
+        Map<String, Value> genres = new HashMap<>();
+        Map<String, Value> directors = new HashMap<>();
+        Map<String, Value> years = new HashMap<>();
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            MovieRow movie = rowAt.apply(i);
+            if (!filter.matches(movie)) {
+                continue;
+            }
+            total++;
+            count(genres, FacetFilter.key(movie.genre()), movie.genre());
+            count(directors, FacetFilter.key(movie.director()), movie.director());
+            Integer year = FacetFilter.yearOf(movie.releaseDate());
+            if (year != null) {
+                count(years, year.toString(), year.toString());
+            }
+        }
+        return new FacetCounts(total, top(genres), top(directors), top(years));
+    }
+
+    private static void count(Map<String, Value> counts, String key, String label) {
+        counts.merge(key, new Value(key, label == null ? "" : label.trim(), 1),
+                (a, b) -> new Value(key, a.label(), a.count() + 1));
+    }
+
+    private static List<Value> top(Map<String, Value> counts) {
+        List<Value> values = new ArrayList<>(counts.values());
+        values.sort(Comparator.comparingLong(Value::count).reversed());
+        return values.size() > LIMIT ? new ArrayList<>(values.subList(0, LIMIT)) : values;
+    }
+}
@@ -0,0 +1,149 @@
+package org.example;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoCommandException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.mongodb.client.model.Filters.*;
+
+// Dictionary encoding of genres and directors, kept in FacetValues. Each distinct normalized
+// value gets a small int code that movies carry as genreCode/directorCode, so facet filters are
+// equality matches on an indexed int instead of regexes over free-form strings. The entries also
+// hold how many movies have each value (years included), so the unfiltered facet counts are a
+// read of FacetValues rather than a scan of Movies.
+//
+// Entries look like {_id: "genre|sci fi", field: "genre", key: "sci fi", label: "Sci-Fi",
+// code: 7, count: 1234}; years have no code. Codes come from the {_id: "#sequence"} counter.
+public class FacetDictionary {
+    public static final String COLLECTION = "FacetValues";
+    public static final List<String> FIELDS = Arrays.asList("genre", "director", "year");
+
+    private final MongoCollection<Document> values;
+    // field|key -> code, for values this process has already seen; codes never change
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+
+    public FacetDictionary(MongoCollection<Document> values) {
+        this.values = values;
+    }
+
+    public static String codeField(String field) {
+        return field + "Code";
+    }
+
+    // The value's code, assigned on first use; label is the first spelling seen
+    public int code(String field, String label) {
+        String key = FacetFilter.key(label);
+        String id = field + "|" + key;
+        Integer cached = codes.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        Document entry = values.find(eq("_id", id)).first();
+        if (entry == null) {
+            try {
+                values.updateOne(eq("_id", id), Updates.combine(
+                        Updates.setOnInsert("field", field),
+                        Updates.setOnInsert("key", key),
+                        Updates.setOnInsert("label", label == null ? "" : label.trim()),
+                        Updates.setOnInsert("count", 0L)), new UpdateOptions().upsert(true));
+            } catch (MongoWriteException e) {
+                // Another writer created it first
+                if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+                    throw e;
+                }
+            }
+            entry = values.find(eq("_id", id)).first();
+        }
+        if (entry.getInteger("code") == null) {
+            // Only the first writer's code sticks; everyone else reads it back
+            values.updateOne(and(eq("_id", id), exists("code", false)), Updates.set("code", nextCode()));
+            entry = values.find(eq("_id", id)).first();
+        }
+        int code = entry.getInteger("code");
+        codes.put(id, code);
+        return code;
+    }
+
+    // The code of an existing value, or null if no movie has ever had it
+    public Integer find(String field, String key) {
+        String id = field + "|" + key;
+        Integer cached = codes.get(id);
+        if (cached != null) {
+            return cached;
+        }
+        Document entry = values.find(eq("_id", id)).first();
+        if (entry == null || entry.getInteger("code") == null) {
+            return null;
+        }
+        codes.put(id, entry.getInteger("code"));
+        return entry.getInteger("code");
+    }
+
+    // Entries for the given codes, in one query
+    public Map<Integer, Document> entries(String field, Collection<Integer> wanted) {
+        Map<Integer, Document> found = new HashMap<>();
+        for (Document entry : values.find(and(eq("field", field), in("code", wanted)))) {
+            found.put(entry.getInteger("code"), entry);
+        }
+        return found;
+    }
+
+    // One $facet stage over FacetValues giving the most common values of every field from the
+    // stored counts: {genre: [entries], director: [...], year: [...]}
+    public static Document countsStage(int limit) {
+        Document facets = new Document();
+        for (String field : FIELDS) {
+            facets.append(field, Arrays.asList(
+                    new Document("$match", new Document("field", field).append("count", new Document("$gt", 0))),
+                    new Document("$sort", new Document("count", -1)),
+                    new Document("$limit", limit)));
+        }
+        return new Document("$facet", facets);
+    }
+
+    // A movie was inserted with these values: bump their counts in one round trip
+    public void counted(String genre, String director, Integer year) {
+        List<WriteModel<Document>> increments = new ArrayList<>();
+        increments.add(new UpdateOneModel<>(eq("_id", "genre|" + FacetFilter.key(genre)),
+                Updates.inc("count", 1L)));
+        increments.add(new UpdateOneModel<>(eq("_id", "director|" + FacetFilter.key(director)),
+                Updates.inc("count", 1L)));
+        if (year != null) {
+            increments.add(new UpdateOneModel<>(eq("_id", "year|" + year),
+                    Updates.combine(Updates.inc("count", 1L), Updates.setOnInsert("field", "year"),
+                            Updates.setOnInsert("key", year.toString()), Updates.setOnInsert("label", year.toString())),
+                    new UpdateOptions().upsert(true)));
+        }
+        values.bulkWrite(increments);
+    }
+
+    // Fills genreCode, directorCode and year on a movie document from its strings
+    public void encode(Document movie) {
+        movie.put(codeField("genre"), code("genre", movie.getString("genre")));
+        movie.put(codeField("director"), code("director", movie.getString("director")));
+        Integer year = FacetFilter.yearOf(ReleaseDates.text(movie.get("releaseDate")));
+        if (year != null) {
+            movie.put("year", year);
+        }
+    }
+
+    private int nextCode() {
+        try {
+            Document sequence = values.findOneAndUpdate(eq("_id", "#sequence"), Updates.inc("seq", 1),
+                    new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER));
+            return sequence.getInteger("seq");
+        } catch (MongoCommandException e) {
+            // Two first-ever codes raced to create the counter; it exists now
+            if (ErrorCategory.fromErrorCode(e.getErrorCode()) != ErrorCategory.DUPLICATE_KEY) {
+                throw e;
+            }
+            return nextCode();
+        }
+    }
+}
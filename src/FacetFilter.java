@@ -0,0 +1,61 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Facet selection for browsing: a normalized genre key, director key and an inclusive range of
+// release years (one year, a decade, or open on either side), each null when not narrowed.
+public record FacetFilter(String genre, String director, Integer yearFrom, Integer yearTo) {
+    public static final FacetFilter NONE = new FacetFilter(null, null, null, null);
+
+    private static final Pattern YEAR = Pattern.compile("(?<!\\d)(1[89]\\d\\d|2[01]\\d\\d)(?!\\d)");
+
+    public boolean isEmpty() {
+        return genre == null && director == null && yearFrom == null && yearTo == null;
+    }
+
+    public boolean hasYears() {
+        return yearFrom != null || yearTo != null;
+    }
+
+    // Exactly one year, as picked in the year list
+    public Integer singleYear() {
+        return yearFrom != null && yearFrom.equals(yearTo) ? yearFrom : null;
+    }
+
+    public boolean matches(MovieRow movie) {
+        return matches(movie.genre(), movie.director(), movie.releaseDate());
+    }
+
+    // Raw values as stored or shown in the table
+    public boolean matches(Object genre, Object director, Object releaseDate) {
+        return (this.genre == null || this.genre.equals(key(genre == null ? null : genre.toString())))
+                && (this.director == null || this.director.equals(key(director == null ? null : director.toString())))
+                && (!hasYears() || inYears(yearOf(ReleaseDates.text(releaseDate))));
+    }
+
+    private boolean inYears(Integer year) {
+        return year != null && (yearFrom == null || year >= yearFrom) && (yearTo == null || year <= yearTo);
+    }
+
+    // The dictionary key for a free-form genre or director: accents, case, punctuation and
+    // spacing don't matter, so "Sci-Fi", "sci fi" and "SCI FI" are one value
+    public static String key(String value) {
+        return value == null ? "" : String.join(" ", MovieSearchIndex.tokenize(value));
+    }
+
+    // The year of a release date; text that isn't a date still counts if it names a
+    // plausible year, e.g. "Spring 1999"
+    public static Integer yearOf(String releaseDate) {
+        if (releaseDate == null) {
+            return null;
+        }
+        LocalDate date = ReleaseDates.parse(releaseDate);
+        if (date != null) {
+            return date.getYear();
+        }
+        Matcher matcher = YEAR.matcher(releaseDate);
+        return matcher.find() ? Integer.valueOf(matcher.group(1)) : null;
+    }
+}
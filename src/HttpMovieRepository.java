@@ -0,0 +1,213 @@
+package org.example;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Thin-client MovieRepository: every call goes to a MovieServer over HTTP/JSON instead of to
+// Mongo. Calls about the user use the session from login; the userId arguments the interface
+// passes are ignored, as the server only ever acts for the logged-in user.
+public class HttpMovieRepository implements MovieRepository, UserAccounts {
+    private final URI baseUri;
+    private final HttpClient client;
+    private final Duration timeout;
+    private volatile String token;
+
+    public HttpMovieRepository(String serverUrl, Duration timeout) {
+        this.baseUri = URI.create(serverUrl.endsWith("/") ? serverUrl : serverUrl + "/");
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder()
+                .connectTimeout(timeout)
+                .build();
+    }
+
+    // Throws if the server can't be reached, so the browser can fall back to the snapshot
+    public void checkHealth() {
+        send(HttpRequest.newBuilder(baseUri.resolve("api/health")).timeout(timeout).GET().build());
+    }
+
+    @Override
+    public ObjectId login(String username, String password, UserState state) {
+        Document response;
+        try {
+            response = call("login", new Document("username", username).append("password", password));
+        } catch (IllegalStateException e) {
+            // Wrong credentials, as opposed to the server failing
+            if (e.getMessage().startsWith("401")) {
+                return null;
+            }
+            throw e;
+        }
+        token = response.getString("token");
+        fill(response, state);
+        return MovieJson.id(response.getString("userId"));
+    }
+
+    @Override
+    public ObjectId signup(String username, String password, String email) {
+        Document response = call("signup", new Document("username", username).append("password", password)
+                .append("email", email));
+        return MovieJson.id(response.getString("userId"));
+    }
+
+    @Override
+    public long countMovies(FacetFilter filter) {
+        return call("count", new Document("filter", MovieJson.filter(filter))).get("count", Number.class).longValue();
+    }
+
+    @Override
+    public List<MovieRow> moviesAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return MovieJson.rows(call("moviesAfter", page(sort, filter, after, limit)), "movies");
+    }
+
+    @Override
+    public List<MovieRow> movieKeysAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return MovieJson.rows(call("movieKeysAfter", page(sort, filter, after, limit)), "movies");
+    }
+
+    @Override
+    public MovieRow movieKeyAt(MovieSort sort, FacetFilter filter, long offset) {
+        return MovieJson.row(call("movieKeyAt", new Document("sort", MovieJson.sort(sort))
+                .append("filter", MovieJson.filter(filter))
+                .append("offset", offset)).get("movie", Document.class));
+    }
+
+    private static Document page(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return new Document("sort", MovieJson.sort(sort))
+                .append("filter", MovieJson.filter(filter))
+                .append("after", after == null ? null : MovieJson.row(after))
+                .append("limit", limit);
+    }
+
+    @Override
+    public FacetCounts facets(FacetFilter filter) {
+        return MovieJson.facets(call("facets", new Document("filter", MovieJson.filter(filter))));
+    }
+
+    @Override
+    public boolean isSearchIndexed() {
+        return call("searchIndexed", new Document()).getBoolean("indexed");
+    }
+
+    @Override
+    public void search(String term, int limit, Consumer<MovieRow> sink) {
+        MovieJson.rows(call("search", new Document("term", term).append("limit", limit)), "movies").forEach(sink);
+    }
+
+    @Override
+    public double averageRating(ObjectId movieId) {
+        return call("averageRating", new Document("movieId", movieId.toHexString()))
+                .get("average", Number.class).doubleValue();
+    }
+
+    @Override
+    public void topRated(String genre, int minVotes, int limit, Consumer<MovieRow> sink) {
+        MovieJson.rows(call("topRated", new Document("genre", genre).append("minVotes", minVotes)
+                .append("limit", limit)), "movies").forEach(sink);
+    }
+
+    @Override
+    public List<String> genres() {
+        return call("genres", new Document()).getList("genres", String.class);
+    }
+
+    @Override
+    public void watchlist(ObjectId userId, Consumer<MovieRow> sink) {
+        MovieJson.rows(call("watchlist", new Document()), "movies").forEach(sink);
+    }
+
+    @Override
+    public void ratedMovies(ObjectId userId, Consumer<MovieRow> sink) {
+        MovieJson.rows(call("ratedMovies", new Document()), "movies").forEach(sink);
+    }
+
+    // One call for both lists, as at login
+    @Override
+    public void loadUserState(ObjectId userId, UserState state) {
+        fill(call("userState", new Document()), state);
+    }
+
+    private static void fill(Document response, UserState state) {
+        MovieJson.rows(response, "watchlist").forEach(state::addWatchlisted);
+        MovieJson.rows(response, "rated").forEach(state::addRated);
+    }
+
+    @Override
+    public void recommended(ObjectId userId, int limit, Consumer<MovieRow> sink) {
+        MovieJson.rows(call("recommended", new Document("limit", limit)), "movies").forEach(sink);
+    }
+
+    // The server validates and fills in the rest, as the Add Movie dialog does locally
+    @Override
+    public ObjectId addMovie(Document movie) {
+        Document json = new Document("title", movie.getString("title"))
+                .append("releaseDate", movie.containsKey("releaseDate")
+                        ? ReleaseDates.text(movie.get("releaseDate")) : null)
+                .append("genre", movie.getString("genre"))
+                .append("director", movie.getString("director"));
+        ObjectId id = MovieJson.id(call("addMovie", new Document("movie", json)).getString("id"));
+        movie.put("_id", id);
+        return id;
+    }
+
+    @Override
+    public boolean addToWatchlist(ObjectId userId, ObjectId movieId) {
+        return call("addToWatchlist", new Document("movieId", movieId.toHexString())).getBoolean("added");
+    }
+
+    @Override
+    public boolean addRating(ObjectId userId, ObjectId movieId, int rating, String review) {
+        return call("addRating", new Document("movieId", movieId.toHexString()).append("rating", rating)
+                .append("review", review)).getBoolean("inserted");
+    }
+
+    @Override
+    public List<Review> reviews(ObjectId movieId, ObjectId before, int limit) {
+        return MovieJson.reviews(call("reviews", new Document("movieId", movieId.toHexString())
+                .append("before", before == null ? null : before.toHexString())
+                .append("limit", limit)));
+    }
+
+    private Document call(String name, Document request) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(baseUri.resolve("api/" + name))
+                .timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(request.toJson(MovieJson.SETTINGS), StandardCharsets.UTF_8));
+        String session = token;
+        if (session != null) {
+            builder.header("Authorization", "Bearer " + session);
+        }
+        return send(builder.build());
+    }
+
+    // Errors come back as {"error": ...}; 503 means the server can't do it at all right now
+    private Document send(HttpRequest request) {
+        HttpResponse<String> response;
+        try {
+            response = client.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Movie server unreachable: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for the movie server", e);
+        }
+        Document body = Document.parse(response.body());
+        if (response.statusCode() == 503) {
+            throw new UnsupportedOperationException(body.getString("error"));
+        }
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException(response.statusCode() + ": " + body.getString("error"));
+        }
+        return body;
+    }
+}
@@ -0,0 +1,331 @@
+package org.example;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+// MovieRepository held entirely on the heap, for benchmarks and for running without MongoDB.
+// Movies, users and their watchlist/rating entries are stored column-wise in primitive arrays
+// indexed by dense int ids, so millions of rows don't mean millions of small objects.
+public class InMemoryMovieRepository implements MovieRepository {
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final MovieSearchIndex searchIndex = new MovieSearchIndex();
+
+    private final ObjectIdIndex movieIds = new ObjectIdIndex();
+    private final List<String> titles = new ArrayList<>();
+    private final List<String> releaseDates = new ArrayList<>();
+    private final List<String> genres = new ArrayList<>();
+    private final List<String> directors = new ArrayList<>();
+    private long[] ratingSums = new long[16];
+    private int[] ratingCounts = new int[16];
+
+    private final ObjectIdIndex userIds = new ObjectIdIndex();
+    // Per user, in insertion order
+    private final List<IntList> watchlists = new ArrayList<>();
+    private final List<IntList> ratedLists = new ArrayList<>();
+    // (user, movie) -> 1 for watchlist entries, -> rating for ratings
+    private final LongIntHashMap watchlistEntries = new LongIntHashMap();
+    private final LongIntHashMap ratings = new LongIntHashMap();
+    // Per movie, oldest first; only non-blank reviews are kept
+    private final Map<Integer, List<Review>> reviews = new HashMap<>();
+    private final SortedOrders sortedOrders = new SortedOrders();
+    private final FacetCache facetCache = new FacetCache(64, 10 * 60 * 1000);
+    private final ItemRecommender recommender = new ItemRecommender(Runtime.getRuntime().availableProcessors());
+    private final AtomicBoolean recommenderBuildStarted = new AtomicBoolean();
+
+    @Override
+    public long countMovies(FacetFilter filter) {
+        if (!filter.isEmpty()) {
+            return facets(filter).total();
+        }
+        lock.readLock().lock();
+        try {
+            return movieIds.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Counted by a scan on first use, then kept current by addMovie
+    @Override
+    public FacetCounts facets(FacetFilter filter) {
+        FacetCounts counts = facetCache.get(filter);
+        if (counts == null) {
+            lock.readLock().lock();
+            try {
+                counts = FacetCounts.scan(movieIds.size(), movie -> movieRow(movie, null), filter);
+                facetCache.put(filter, counts);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return counts;
+    }
+
+    // Dense ids are handed out in insertion order, which is _id order for generated ObjectIds;
+    // any other order is a sorted permutation built on first use
+    @Override
+    public List<MovieRow> moviesAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        lock.readLock().lock();
+        try {
+            if (sort.equals(MovieSort.DEFAULT)) {
+                List<MovieRow> movies = new ArrayList<>(limit);
+                for (int movie = firstAfter(after); movie < movieIds.size() && movies.size() < limit; movie++) {
+                    MovieRow row = movieRow(movie, null);
+                    if (filter.matches(row)) {
+                        movies.add(row);
+                    }
+                }
+                return movies;
+            }
+            int[] order = sortedOrders.get(sort, movieIds.size(), movie -> movieRow(movie, null));
+            return SortedOrders.page(order, movie -> movieRow(movie, null), sort, filter, after, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Rows are built from the columns either way, so there is nothing cheaper to return
+    @Override
+    public List<MovieRow> movieKeysAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return moviesAfter(sort, filter, after, limit);
+    }
+
+    private int firstAfter(MovieRow after) {
+        return after == null ? 0 : movieIds.find(after.id()) + 1;
+    }
+
+    @Override
+    public boolean isSearchIndexed() {
+        return true;
+    }
+
+    @Override
+    public void search(String term, int limit, Consumer<MovieRow> sink) {
+        for (ObjectId id : searchIndex.search(term, limit)) {
+            MovieRow movie = movie(id);
+            if (movie != null) {
+                sink.accept(movie);
+            }
+        }
+    }
+
+    public void close() {
+        recommender.close();
+    }
+
+    @Override
+    public double averageRating(ObjectId movieId) {
+        lock.readLock().lock();
+        try {
+            int movie = movieIds.find(movieId);
+            if (movie < 0 || ratingCounts[movie] == 0) {
+                return 0.0;
+            }
+            return Math.round((double) ratingSums[movie] / ratingCounts[movie] * 10.0) / 10.0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void topRated(String genre, int minVotes, int limit, Consumer<MovieRow> sink) {
+        List<MovieRow> top;
+        lock.readLock().lock();
+        try {
+            top = SortedOrders.topRated(movieIds.size(), movie -> movieRow(movie, null), genre, minVotes, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+        top.forEach(sink);
+    }
+
+    @Override
+    public List<String> genres() {
+        lock.readLock().lock();
+        try {
+            TreeSet<String> distinct = new TreeSet<>();
+            for (String genre : genres) {
+                if (genre != null) {
+                    distinct.add(genre);
+                }
+            }
+            return new ArrayList<>(distinct);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void watchlist(ObjectId userId, Consumer<MovieRow> sink) {
+        for (MovieRow movie : userMovies(userId, watchlists, false)) {
+            sink.accept(movie);
+        }
+    }
+
+    @Override
+    public void ratedMovies(ObjectId userId, Consumer<MovieRow> sink) {
+        for (MovieRow movie : userMovies(userId, ratedLists, true)) {
+            sink.accept(movie);
+        }
+    }
+
+    // Copies the rows out under the lock so the sink can take its time
+    private List<MovieRow> userMovies(ObjectId userId, List<IntList> lists, boolean withRating) {
+        lock.readLock().lock();
+        try {
+            int user = userIds.find(userId);
+            if (user < 0) {
+                return Collections.emptyList();
+            }
+            IntList movies = lists.get(user);
+            List<MovieRow> result = new ArrayList<>(movies.size());
+            for (int i = 0; i < movies.size(); i++) {
+                int movie = movies.get(i);
+                result.add(movieRow(movie, withRating ? ratings.get(LongIntHashMap.key(user, movie), 0) : null));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // The model is built on first use from every rating so far, then kept up to date. The first
+    // caller builds it without holding any lock, so addRating only queues meanwhile; callers
+    // arriving during the build get nothing until the finished model is published.
+    @Override
+    public void recommended(ObjectId userId, int limit, Consumer<MovieRow> sink) {
+        if (!recommender.isReady() && recommenderBuildStarted.compareAndSet(false, true)) {
+            recommender.buildModel();
+        }
+        for (ObjectId id : recommender.recommend(userId, limit)) {
+            MovieRow movie = movie(id);
+            if (movie != null) {
+                sink.accept(movie);
+            }
+        }
+    }
+
+    @Override
+    public ObjectId addMovie(Document movie) {
+        ObjectId id = movie.getObjectId("_id");
+        if (id == null) {
+            id = new ObjectId();
+            movie.put("_id", id);
+        }
+        lock.writeLock().lock();
+        try {
+            int dense = movieIds.getOrAdd(id);
+            if (dense == titles.size()) {
+                titles.add(movie.getString("title"));
+                releaseDates.add(ReleaseDates.text(movie.get("releaseDate")));
+                genres.add(movie.getString("genre"));
+                directors.add(movie.getString("director"));
+                if (dense == ratingSums.length) {
+                    ratingSums = Arrays.copyOf(ratingSums, dense * 2);
+                    ratingCounts = Arrays.copyOf(ratingCounts, dense * 2);
+                }
+                sortedOrders.clear();
+                facetCache.onInsert(movie.getString("genre"), movie.getString("director"),
+                        releaseDates.get(dense));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        searchIndex.add(movie);
+        return id;
+    }
+
+    @Override
+    public boolean addToWatchlist(ObjectId userId, ObjectId movieId) {
+        lock.writeLock().lock();
+        try {
+            int movie = movieIds.find(movieId);
+            if (movie < 0) {
+                return false;
+            }
+            int user = user(userId);
+            if (!watchlistEntries.putIfAbsent(LongIntHashMap.key(user, movie), 1)) {
+                return false;
+            }
+            watchlists.get(user).add(movie);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean addRating(ObjectId userId, ObjectId movieId, int rating, String review) {
+        lock.writeLock().lock();
+        try {
+            int movie = movieIds.find(movieId);
+            if (movie < 0) {
+                return false;
+            }
+            int user = user(userId);
+            long key = LongIntHashMap.key(user, movie);
+            if (!ratings.putIfAbsent(key, rating)) {
+                return false;
+            }
+            ratedLists.get(user).add(movie);
+            ratingSums[movie] += rating;
+            ratingCounts[movie]++;
+            sortedOrders.clear();
+            recommender.addRating(userId, movieId, rating);
+            if (review != null && !review.trim().isEmpty()) {
+                reviews.computeIfAbsent(movie, m -> new ArrayList<>())
+                        .add(new Review(new ObjectId(), movieId, userId, rating, review));
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Review> reviews(ObjectId movieId, ObjectId before, int limit) {
+        lock.readLock().lock();
+        try {
+            List<Review> feed = reviews.getOrDefault(movieIds.find(movieId), Collections.emptyList());
+            List<Review> page = new ArrayList<>();
+            for (int i = feed.size() - 1; i >= 0 && page.size() < limit; i--) {
+                if (before == null || feed.get(i).id().compareTo(before) < 0) {
+                    page.add(feed.get(i));
+                }
+            }
+            return page;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private MovieRow movie(ObjectId id) {
+        lock.readLock().lock();
+        try {
+            int movie = movieIds.find(id);
+            return movie < 0 ? null : movieRow(movie, null);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private MovieRow movieRow(int movie, Integer userRating) {
+        return new MovieRow(movieIds.get(movie), titles.get(movie), releaseDates.get(movie), genres.get(movie),
+                directors.get(movie), ratingSums[movie], ratingCounts[movie], userRating);
+    }
+
+    private int user(ObjectId userId) {
+        int user = userIds.getOrAdd(userId);
+        if (user == watchlists.size()) {
+            watchlists.add(new IntList());
+            ratedLists.add(new IntList());
+        }
+        return user;
+    }
+}
@@ -0,0 +1,531 @@
+package org.example;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+// Item-item collaborative filtering over Ratings. Ratings are held twice, as per-user rows and
+// per-movie columns of packed ints (dense id << 4 | rating), so tens of millions of them fit in
+// a few hundred MB. Each movie keeps its NEIGHBORS most similar movies by adjusted cosine
+// (ratings centred on the user's mean, damped for small overlaps), computed with fork/join.
+// Recommendations are a weighted sum over the neighbours of what the user rated, from memory.
+//
+// Lifecycle: ratings added before the first build go straight into the matrix; ratings that
+// arrive while a build is running are queued; after that each new rating updates the model in
+// the background by recomputing the rated movie's neighbours. The neighbour lists can be
+// exported to SimilarityTable, so clients score from stored rows instead of each building
+// the model.
+public class ItemRecommender {
+    private static final int NEIGHBORS = 50;
+    // Bounds the cost of popular movies and heavy raters; both lists are in arrival order
+    private static final int MAX_USERS_PER_ITEM = 5000;
+    private static final int MAX_ITEMS_PER_USER = 500;
+    // Overlap at which a similarity counts for half
+    private static final float SHRINK = 10f;
+    private static final int LEAF_ITEMS = 64;
+
+    private enum State { NEW, BUILDING, READY }
+
+    private final ForkJoinPool pool;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ObjectIdIndex userIds = new ObjectIdIndex();
+    private final ObjectIdIndex itemIds = new ObjectIdIndex();
+    // user -> item << 4 | rating, item -> user << 4 | rating
+    private final List<IntList> userRows = new ArrayList<>();
+    private final List<IntList> itemColumns = new ArrayList<>();
+    private float[] userMeans = new float[16];
+    private float[] itemNorms = new float[16];
+    private int[][] neighbors = new int[16][];
+    private float[][] similarities = new float[16][];
+
+    private State state = State.NEW;
+    private final List<Object[]> pending = new ArrayList<>();
+    private final ExecutorService updater = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "recommender-update");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ThreadLocal<Accumulator> accumulators = ThreadLocal.withInitial(Accumulator::new);
+
+    public ItemRecommender(int parallelism) {
+        this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public synchronized boolean isReady() {
+        return state == State.READY;
+    }
+
+    // Stops the build pool and the update thread, once nothing will use the model again
+    public void close() {
+        pool.shutdownNow();
+        updater.shutdownNow();
+    }
+
+    // Reads every rating, then builds the model
+    public void load(MongoCollection<Document> ratings) {
+        synchronized (this) {
+            state = State.BUILDING;
+        }
+        lock.writeLock().lock();
+        try {
+            for (Document rating : ratings.find()
+                    .projection(Projections.fields(Projections.include("userId", "movieId", "rating"),
+                            Projections.excludeId()))
+                    .batchSize(10000)) {
+                Number value = rating.get("rating", Number.class);
+                if (value != null) {
+                    append(rating.getObjectId("userId"), rating.getObjectId("movieId"), value.intValue());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        buildModel();
+    }
+
+    // New ratings must be unique per (user, movie); the repositories guarantee that
+    public void addRating(ObjectId userId, ObjectId movieId, int rating) {
+        synchronized (this) {
+            if (state == State.BUILDING) {
+                pending.add(new Object[]{userId, movieId, rating});
+                return;
+            }
+            if (state == State.NEW) {
+                lock.writeLock().lock();
+                try {
+                    append(userId, movieId, rating);
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                return;
+            }
+        }
+        updater.execute(() -> update(userId, movieId, rating));
+    }
+
+    public void buildModel() {
+        synchronized (this) {
+            state = State.BUILDING;
+        }
+        lock.writeLock().lock();
+        try {
+            int users = userRows.size();
+            int items = itemColumns.size();
+            pool.submit(() -> IntStream.range(0, users).parallel().forEach(this::computeMean)).join();
+            pool.submit(() -> IntStream.range(0, items).parallel().forEach(this::computeNorm)).join();
+            pool.invoke(new SimilarityTask(0, items));
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        List<Object[]> queued;
+        synchronized (this) {
+            state = State.READY;
+            queued = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (Object[] rating : queued) {
+            updater.execute(() -> update((ObjectId) rating[0], (ObjectId) rating[1], (Integer) rating[2]));
+        }
+    }
+
+    // Movies the user hasn't rated, best predicted first; empty before the model is built or
+    // when nothing the user rated has neighbours they'd like
+    public List<ObjectId> recommend(ObjectId userId, int limit) {
+        if (!isReady()) {
+            return Collections.emptyList();
+        }
+        lock.readLock().lock();
+        try {
+            int user = userIds.find(userId);
+            if (user < 0) {
+                return Collections.emptyList();
+            }
+            Accumulator acc = accumulators.get();
+            acc.ensure(itemColumns.size());
+            IntList row = userRows.get(user);
+            float mean = userMeans[user];
+            for (int a = 0; a < row.size(); a++) {
+                int item = row.get(a) >>> 4;
+                acc.counts[item] = -1; // already rated
+                acc.touched.add(item);
+            }
+            for (int a = 0; a < row.size(); a++) {
+                int entry = row.get(a);
+                float centred = (entry & 0xF) - mean;
+                int[] ids = neighbors[entry >>> 4];
+                float[] sims = similarities[entry >>> 4];
+                for (int k = 0; ids != null && k < ids.length; k++) {
+                    int item = ids[k];
+                    if (acc.counts[item] < 0) {
+                        continue;
+                    }
+                    if (acc.counts[item]++ == 0) {
+                        acc.touched.add(item);
+                    }
+                    acc.sums[item] += sims[k] * centred;
+                    acc.weights[item] += sims[k];
+                }
+            }
+
+            // Damped so a single weak neighbour can't put a movie on top
+            TopK top = new TopK(limit);
+            for (int t = 0; t < acc.touched.size(); t++) {
+                int item = acc.touched.get(t);
+                if (acc.counts[item] > 0) {
+                    float score = acc.sums[item] / (acc.weights[item] + 1f);
+                    if (score > 0) {
+                        top.offer(item, score);
+                    }
+                }
+                acc.reset(item);
+            }
+            acc.touched.clear();
+
+            int[] best = top.sortedIds();
+            List<ObjectId> ids = new ArrayList<>(best.length);
+            for (int item : best) {
+                ids.add(itemIds.get(item));
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Each movie's neighbours, most similar first, with their similarities
+    public void exportNeighbors(Consumer<Document> sink) {
+        lock.readLock().lock();
+        try {
+            for (int item = 0; item < itemColumns.size(); item++) {
+                int[] ids = neighbors[item];
+                if (ids == null || ids.length == 0) {
+                    continue;
+                }
+                Integer[] order = new Integer[ids.length];
+                for (int k = 0; k < order.length; k++) {
+                    order[k] = k;
+                }
+                float[] sims = similarities[item];
+                Arrays.sort(order, (a, b) -> Float.compare(sims[b], sims[a]));
+                List<ObjectId> movieIds = new ArrayList<>(ids.length);
+                List<Double> scores = new ArrayList<>(ids.length);
+                for (int k : order) {
+                    movieIds.add(itemIds.get(ids[k]));
+                    scores.add((double) sims[k]);
+                }
+                sink.accept(new Document("_id", itemIds.get(item))
+                        .append("neighbors", movieIds)
+                        .append("similarities", scores));
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Appends to the matrix only; the caller holds the write lock
+    private void append(ObjectId userId, ObjectId movieId, int rating) {
+        int user = userIds.getOrAdd(userId);
+        int item = itemIds.getOrAdd(movieId);
+        if (user == userRows.size()) {
+            userRows.add(new IntList());
+            if (user == userMeans.length) {
+                userMeans = Arrays.copyOf(userMeans, user * 2);
+            }
+        }
+        if (item == itemColumns.size()) {
+            itemColumns.add(new IntList());
+            if (item == itemNorms.length) {
+                itemNorms = Arrays.copyOf(itemNorms, item * 2);
+                neighbors = Arrays.copyOf(neighbors, item * 2);
+                similarities = Arrays.copyOf(similarities, item * 2);
+            }
+        }
+        int value = Math.max(0, Math.min(rating, 0xF));
+        userRows.get(user).add(item << 4 | value);
+        itemColumns.get(item).add(user << 4 | value);
+    }
+
+    // The user's other ratings shift slightly with the new mean, and so do the norms of the
+    // movies they rated; those catch up on the next full build
+    private void update(ObjectId userId, ObjectId movieId, int rating) {
+        int item;
+        lock.writeLock().lock();
+        try {
+            int existingUser = userIds.find(userId);
+            int existingItem = itemIds.find(movieId);
+            if (existingUser >= 0 && existingItem >= 0 && hasRated(existingUser, existingItem)) {
+                return;
+            }
+            append(userId, movieId, rating);
+            int user = userIds.find(userId);
+            item = itemIds.find(movieId);
+            computeMean(user);
+            float centred = rating - userMeans[user];
+            itemNorms[item] = (float) Math.sqrt(itemNorms[item] * itemNorms[item] + centred * centred);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            return;
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        TopK fresh;
+        lock.readLock().lock();
+        try {
+            fresh = similarItems(item, accumulators.get());
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        lock.writeLock().lock();
+        try {
+            neighbors[item] = fresh.ids();
+            similarities[item] = fresh.scores();
+            for (int k = 0; k < neighbors[item].length; k++) {
+                offerNeighbor(neighbors[item][k], item, similarities[item][k]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean hasRated(int user, int item) {
+        IntList row = userRows.get(user);
+        for (int a = 0; a < row.size(); a++) {
+            if (row.get(a) >>> 4 == item) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Puts item into target's neighbour list if it is more similar than the weakest one there
+    private void offerNeighbor(int target, int item, float similarity) {
+        int[] ids = neighbors[target];
+        float[] sims = similarities[target];
+        if (ids == null) {
+            neighbors[target] = new int[]{item};
+            similarities[target] = new float[]{similarity};
+            return;
+        }
+        int weakest = 0;
+        for (int k = 0; k < ids.length; k++) {
+            if (ids[k] == item) {
+                sims[k] = similarity;
+                return;
+            }
+            if (sims[k] < sims[weakest]) {
+                weakest = k;
+            }
+        }
+        if (ids.length < NEIGHBORS) {
+            neighbors[target] = Arrays.copyOf(ids, ids.length + 1);
+            similarities[target] = Arrays.copyOf(sims, sims.length + 1);
+            neighbors[target][ids.length] = item;
+            similarities[target][ids.length] = similarity;
+        } else if (similarity > sims[weakest]) {
+            ids[weakest] = item;
+            sims[weakest] = similarity;
+        }
+    }
+
+    private void computeMean(int user) {
+        IntList row = userRows.get(user);
+        long sum = 0;
+        for (int a = 0; a < row.size(); a++) {
+            sum += row.get(a) & 0xF;
+        }
+        userMeans[user] = row.size() == 0 ? 0 : (float) sum / row.size();
+    }
+
+    private void computeNorm(int item) {
+        IntList column = itemColumns.get(item);
+        double sum = 0;
+        for (int a = 0; a < column.size(); a++) {
+            int entry = column.get(a);
+            float centred = (entry & 0xF) - userMeans[entry >>> 4];
+            sum += centred * centred;
+        }
+        itemNorms[item] = (float) Math.sqrt(sum);
+    }
+
+    // Dot products with every co-rated movie, via the raters of this one
+    private TopK similarItems(int item, Accumulator acc) {
+        acc.ensure(itemColumns.size());
+        IntList column = itemColumns.get(item);
+        int users = Math.min(column.size(), MAX_USERS_PER_ITEM);
+        for (int a = 0; a < users; a++) {
+            int entry = column.get(a);
+            int user = entry >>> 4;
+            float mean = userMeans[user];
+            float centred = (entry & 0xF) - mean;
+            IntList row = userRows.get(user);
+            int items = Math.min(row.size(), MAX_ITEMS_PER_USER);
+            for (int b = 0; b < items; b++) {
+                int other = row.get(b);
+                int j = other >>> 4;
+                if (j == item) {
+                    continue;
+                }
+                if (acc.counts[j]++ == 0) {
+                    acc.touched.add(j);
+                }
+                acc.sums[j] += centred * ((other & 0xF) - mean);
+            }
+        }
+
+        TopK top = new TopK(NEIGHBORS);
+        for (int t = 0; t < acc.touched.size(); t++) {
+            int j = acc.touched.get(t);
+            float norms = itemNorms[item] * itemNorms[j];
+            if (norms > 0 && acc.sums[j] > 0) {
+                int overlap = acc.counts[j];
+                top.offer(j, acc.sums[j] / norms * overlap / (overlap + SHRINK));
+            }
+            acc.reset(j);
+        }
+        acc.touched.clear();
+        return top;
+    }
+
+    private final class SimilarityTask extends RecursiveAction {
+        private final int from;
+        private final int to;
+
+        SimilarityTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_ITEMS) {
+                Accumulator acc = accumulators.get();
+                for (int item = from; item < to; item++) {
+                    TopK top = similarItems(item, acc);
+                    neighbors[item] = top.ids();
+                    similarities[item] = top.scores();
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new SimilarityTask(from, mid), new SimilarityTask(mid, to));
+        }
+    }
+
+    // Dense per-thread scratch space indexed by movie; only touched slots are reset
+    private static final class Accumulator {
+        float[] sums = new float[0];
+        float[] weights = new float[0];
+        int[] counts = new int[0];
+        final IntList touched = new IntList(1024);
+
+        void ensure(int size) {
+            if (sums.length < size) {
+                int capacity = Math.max(size, sums.length * 2);
+                sums = Arrays.copyOf(sums, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+                counts = Arrays.copyOf(counts, capacity);
+            }
+        }
+
+        void reset(int item) {
+            sums[item] = 0;
+            weights[item] = 0;
+            counts[item] = 0;
+        }
+    }
+
+    // Bounded min-heap of (id, score) keeping the highest scores
+    private static final class TopK {
+        private final int[] ids;
+        private final float[] scores;
+        private int size;
+
+        TopK(int capacity) {
+            ids = new int[capacity];
+            scores = new float[capacity];
+        }
+
+        void offer(int id, float score) {
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (size > 0 && score > scores[0]) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0);
+            }
+        }
+
+        int[] ids() {
+            return Arrays.copyOf(ids, size);
+        }
+
+        float[] scores() {
+            return Arrays.copyOf(scores, size);
+        }
+
+        // Highest score first; empties the heap
+        int[] sortedIds() {
+            int[] sorted = new int[size];
+            for (int i = sorted.length - 1; i >= 0; i--) {
+                sorted[i] = ids[0];
+                size--;
+                ids[0] = ids[size];
+                scores[0] = scores[size];
+                siftDown(0);
+            }
+            return sorted;
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (scores[parent] <= scores[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int smallest = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < size && scores[left] < scores[smallest]) {
+                    smallest = left;
+                }
+                if (right < size && scores[right] < scores[smallest]) {
+                    smallest = right;
+                }
+                if (smallest == i) {
+                    return;
+                }
+                swap(i, smallest);
+                i = smallest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            float score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+    }
+}
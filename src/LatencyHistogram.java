@@ -0,0 +1,75 @@
+package org.example;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Lock-free latency histogram with log-scaled buckets: eight buckets per doubling from 1 us up
+// to about an hour, so percentiles are within roughly 10% of the real value.
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 8;
+    private static final int BUCKETS = 32 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos, boolean failed) {
+        long micros = Math.max(1, nanos / 1000);
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        maxMicros.accumulateAndGet(micros, Math::max);
+        if (failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    public long errors() {
+        return errors.get();
+    }
+
+    public double meanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : totalMicros.get() / 1000.0 / n;
+    }
+
+    public double maxMillis() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    // Upper bound of the bucket holding the given quantile (0..1), in milliseconds
+    public double percentileMillis(double quantile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get()) / 1000.0;
+            }
+        }
+        return maxMillis();
+    }
+
+    private static int bucket(long micros) {
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+        int sub = power < 3 ? (int) (micros - (1L << power)) << (3 - power)
+                : (int) ((micros >>> (power - 3)) & (SUB_BUCKETS - 1));
+        return Math.min(power * SUB_BUCKETS + sub, BUCKETS - 1);
+    }
+
+    private static long upperBound(int bucket) {
+        int power = bucket / SUB_BUCKETS;
+        int sub = bucket % SUB_BUCKETS;
+        return (1L << power) + ((long) (sub + 1) << power) / SUB_BUCKETS;
+    }
+}
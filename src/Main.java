@@ -1,31 +1,80 @@
 package org.example;
 
+import com.mongodb.MongoSocketException;
+import com.mongodb.MongoTimeoutException;
 import com.mongodb.client.*;
-import com.mongodb.client.model.*;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.DefaultTableCellRenderer;
 import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.*;
 import java.text.SimpleDateFormat;
 import java.util.List;
-
-import static com.mongodb.client.model.Filters.*;
+import java.util.concurrent.CompletionException;
 
 public class Main extends JFrame {
+    private static final int MAX_SEARCH_RESULTS = 1000;
+    private static final int SEARCH_DEBOUNCE_MS = 250;
+    private static final String[] COLUMNS = {"ID", "Title", "Release Date", "Genre", "Director", "Rating"};
+    // Shown columns plus the rating totals toMovieRow keeps after them
+    private static final int ROW_LENGTH = COLUMNS.length + 2;
+    private static final int TOP_RATED_LIMIT = 100;
+    private static final int RECOMMENDATIONS = 50;
+    private static final int REVIEW_PAGE_SIZE = 20;
+
     private MongoClient mongoClient;
     private MongoDatabase database;
     private ObjectId currentUserId;
+    // The logged-in user's watchlist and ratings, loaded with the login
+    private UserState userState;
     private JTable movieTable;
     private JTextField searchField;
-    private DefaultTableModel tableModel;
+    private MovieTableModel tableModel;
+    // The search whose results tableModel holds; null while it shows one of the other views
+    private String shownSearchTerm;
     private JButton searchButton;
     private JButton addMovieButton;
     private JButton addToWatchlistButton;
     private JButton rateMovieButton;
     private JButton showWatchlistButton;
     private JButton showRatedMoviesButton;
+    private JButton recommendedButton;
+    private JButton reviewsButton;
+    private JLabel statusLabel;
+    private QueryRunner queryRunner;
+    private PagedMovieTableModel searchModel;
+    // Order of the browse view, picked by clicking column headers
+    private MovieSort browseSort = MovieSort.DEFAULT;
+    // Genre/director/year narrowing, picked in the facet lists; applies to browse and search
+    private FacetFilter facetFilter = FacetFilter.NONE;
+    private JList<Object> genreFacet;
+    private JList<Object> directorFacet;
+    private JList<Object> yearFacet;
+    private JComboBox<Object> decadeFacet;
+    // Set while the facet lists are refilled, so that doesn't count as the user picking
+    private boolean updatingFacets;
+    private MovieRepository repository;
+    // Null in thin-client mode, where everything goes through the movie server
+    private MongoMovieRepository mongoRepository;
+    private UserAccounts accounts;
+    private final MongoConfig mongoConfig = MongoConfig.load();
+    private volatile CatalogSnapshot snapshot;
+    // Set when Mongo can't be reached and the snapshot is browsed read-only
+    private boolean offline;
+    private JDialog loginDialog;
+    // Latency per UI action and per Mongo command, shown in the Diagnostics dialog
+    private final OperationMetrics metrics = new OperationMetrics();
+    private final SearchResultCache searchCache = new SearchResultCache(
+            Integer.getInteger("moviebrowser.searchCache.size", 200),
+            Integer.getInteger("moviebrowser.searchCache.ttlSeconds", 300) * 1000L);
 
     public Main() {
         initializeDatabase();
@@ -34,33 +83,140 @@ public class Main extends JFrame {
     }
 
     private void initializeDatabase() {
-        try {
-            // Connect to MongoDB
-            mongoClient = MongoClients.create("mongodb://localhost:27017");
-            database = mongoClient.getDatabase("Movie-Browser");
+        // A local snapshot lets the browser search before Mongo answers, or browse without it
+        Path snapshotPath = CatalogSnapshot.defaultPath();
+        snapshot = CatalogSnapshot.openIfExists(snapshotPath);
+
+        // Thin client: server.url points at a MovieServer, which owns the Mongo connections
+        String serverUrl = mongoConfig.get("server.url", null);
+        if (serverUrl != null) {
+            connectToServer(serverUrl);
+            return;
+        }
 
-            // Ensure indexes exist
-            database.getCollection("Users").createIndex(Indexes.ascending("username"), new IndexOptions().unique(true));
-            database.getCollection("Users").createIndex(Indexes.ascending("email"), new IndexOptions().unique(true));
+        try {
+            // Connect to MongoDB; the client connects lazily, so this returns immediately
+            mongoClient = MongoClients.create(mongoConfig.clientSettings()
+                    .addCommandListener(metrics)
+                    .build());
+            database = mongoClient.getDatabase(mongoConfig.databaseName());
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Database connection failed: " + e.getMessage());
+            System.exit(1);
+        }
 
-            // Initialize collections if they don't exist
-            if (!database.listCollectionNames().into(new ArrayList<>()).contains("Movies")) {
-                database.createCollection("Movies");
-            }
-            if (!database.listCollectionNames().into(new ArrayList<>()).contains("Users")) {
-                database.createCollection("Users");
+        // Write-behind is opt-in with -Dmoviebrowser.writeBehind=true
+        mongoRepository = new MongoMovieRepository(database, Boolean.getBoolean("moviebrowser.writeBehind"),
+                searchCache::invalidateMovie,
+                mongoConfig.browseReadPreference(), mongoConfig.primaryAfterWriteMillis());
+        repository = mongoRepository;
+        accounts = mongoRepository;
+
+        // Collections and indexes are brought up to date while the login dialog is showing
+        SchemaBootstrap.start(database).whenComplete((result, error) -> {
+            Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+            if (cause != null) {
+                cause.printStackTrace();
+                SwingUtilities.invokeLater(() -> onDatabaseFailure(cause));
+            } else {
+                refreshSnapshot(snapshotPath);
             }
-            if (!database.listCollectionNames().into(new ArrayList<>()).contains("Ratings")) {
-                database.createCollection("Ratings");
+        });
+
+        // Build the search index while the user is logging in. Recommendations come from the
+        // similarity table the movie server or the SimilarityTable job writes.
+        mongoRepository.startSearchIndexBuild(snapshot);
+    }
+
+    private void connectToServer(String serverUrl) {
+        HttpMovieRepository server = new HttpMovieRepository(serverUrl,
+                Duration.ofMillis(Long.parseLong(mongoConfig.get("server.timeoutMs", "10000"))));
+        repository = server;
+        accounts = server;
+        // Same fallback as an unreachable database: browse the snapshot, if there is one
+        Thread healthCheck = new Thread(() -> {
+            try {
+                server.checkHealth();
+            } catch (Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> onDatabaseFailure(e));
             }
-            if (!database.listCollectionNames().into(new ArrayList<>()).contains("Watchlist")) {
-                database.createCollection("Watchlist");
+        }, "server-health-check");
+        healthCheck.setDaemon(true);
+        healthCheck.start();
+    }
+
+    // Folds movies added or rated since the snapshot was written into a new snapshot file
+    private void refreshSnapshot(Path snapshotPath) {
+        Thread refresher = new Thread(() -> {
+            try {
+                CatalogSnapshot current = snapshot;
+                // Without a snapshot the search index is read from Movies, so it needs no feed
+                snapshot = CatalogSnapshot.refresh(snapshotPath, current,
+                        database.getCollection("Movies").withReadPreference(mongoConfig.browseReadPreference()),
+                        current == null ? movie -> { } : mongoRepository::indexMovie);
+            } catch (Exception e) {
+                e.printStackTrace();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Database connection failed: " + e.getMessage());
+        }, "snapshot-refresh");
+        refresher.setDaemon(true);
+        refresher.start();
+    }
+
+    // Mongo or the movie server is unreachable: keep browsing the snapshot read-only instead of
+    // quitting. Any other failure, like an index that didn't build, means the database answered,
+    // so it is reported and the browser stays online.
+    private void onDatabaseFailure(Throwable error) {
+        if (!isUnreachable(error)) {
+            JOptionPane.showMessageDialog(this,
+                    (error instanceof SchemaBootstrap.SchemaException ? "Database schema update failed: "
+                            : "Database error: ") + error.getMessage(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (snapshot == null) {
+            JOptionPane.showMessageDialog(this, "Database connection failed: " + error.getMessage());
             System.exit(1);
         }
+        offline = true;
+        repository = new SnapshotMovieRepository(snapshot);
+        if (loginDialog != null) {
+            loginDialog.dispose();
+        }
+        applyOfflineState();
+        JOptionPane.showMessageDialog(this,
+                "Database unreachable - browsing the local catalog snapshot read-only.",
+                "Offline",
+                JOptionPane.WARNING_MESSAGE);
+    }
+
+    // Timeouts and socket errors from the driver, or I/O errors reaching the movie server
+    private static boolean isUnreachable(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoTimeoutException || cause instanceof MongoSocketException
+                    || cause instanceof IOException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void applyOfflineState() {
+        if (!offline || addMovieButton == null) {
+            return;
+        }
+        setTitle("Movie Browser (offline, read-only)");
+        addMovieButton.setEnabled(false);
+        addToWatchlistButton.setEnabled(false);
+        rateMovieButton.setEnabled(false);
+        showWatchlistButton.setEnabled(false);
+        showRatedMoviesButton.setEnabled(false);
+        recommendedButton.setEnabled(false);
+        reviewsButton.setEnabled(false);
+        searchMovies();
+        refreshFacets();
     }
 
     private void initializeGUI() {
@@ -70,15 +226,38 @@ public class Main extends JFrame {
         setLayout(new BorderLayout(10, 10));
 
         // Create the table model with columns
-        String[] columns = {"ID", "Title", "Release Date", "Genre", "Director", "Rating"};
-        tableModel = new DefaultTableModel(columns, 0) {
-            @Override
-            public boolean isCellEditable(int row, int column) {
-                return false;
-            }
-        };
+        tableModel = new MovieTableModel(COLUMNS);
         movieTable = new JTable(tableModel);
         movieTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        movieTable.setDefaultRenderer(Object.class, new DefaultTableCellRenderer() {
+            // Marks the titles of movies the user has watchlisted or rated
+            @Override
+            public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                           boolean hasFocus, int row, int column) {
+                super.getTableCellRendererComponent(table, value, isSelected, hasFocus, row, column);
+                setToolTipText(null);
+                Object id = table.getModel().getValueAt(row, 0);
+                if (userState != null && id instanceof ObjectId && table.convertColumnIndexToModel(column) == 1) {
+                    boolean watchlisted = userState.isWatchlisted((ObjectId) id);
+                    Integer rating = userState.rating((ObjectId) id);
+                    if (watchlisted || rating != null) {
+                        setText((watchlisted ? "\u2605 " : "") + (rating != null ? "\u2713 " : "") + getText());
+                        setToolTipText((watchlisted ? "In your watchlist. " : "")
+                                + (rating != null ? "You rated it " + rating + "." : ""));
+                    }
+                }
+                return this;
+            }
+        });
+        movieTable.getTableHeader().addMouseListener(new java.awt.event.MouseAdapter() {
+            @Override
+            public void mouseClicked(java.awt.event.MouseEvent e) {
+                int column = movieTable.columnAtPoint(e.getPoint());
+                if (column >= 0) {
+                    sortBy(MovieSort.Key.values()[movieTable.convertColumnIndexToModel(column)]);
+                }
+            }
+        });
 
         // Search Panel
         JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
@@ -87,6 +266,18 @@ public class Main extends JFrame {
         searchPanel.add(new JLabel("Search Movies: "));
         searchPanel.add(searchField);
         searchPanel.add(searchButton);
+        statusLabel = new JLabel(" ");
+        searchPanel.add(statusLabel);
+        queryRunner = new QueryRunner(tableModel, statusLabel, 4);
+        WriteBehindQueue writeBehind = mongoRepository == null ? null : mongoRepository.writeBehindQueue();
+        if (writeBehind != null) {
+            JLabel pendingWritesLabel = new JLabel();
+            searchPanel.add(pendingWritesLabel);
+            new Timer(1000, e -> pendingWritesLabel.setText(
+                    "Pending writes: " + writeBehind.pendingCount()
+                            + (writeBehind.failedCount() > 0 ? " (" + writeBehind.failedCount() + " failed)" : "")
+            )).start();
+        }
 
         // Button Panel
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 5));
@@ -95,33 +286,183 @@ public class Main extends JFrame {
         rateMovieButton = new JButton("Rate Movie");
         showWatchlistButton = new JButton("Show Watchlist");
         showRatedMoviesButton = new JButton("Show Rated Movies");
+        recommendedButton = new JButton("Recommended for You");
+        reviewsButton = new JButton("Reviews");
+        JButton topRatedButton = new JButton("Top Rated");
+        JButton diagnosticsButton = new JButton("Diagnostics");
 
         buttonPanel.add(addMovieButton);
         buttonPanel.add(addToWatchlistButton);
         buttonPanel.add(rateMovieButton);
         buttonPanel.add(showWatchlistButton);
         buttonPanel.add(showRatedMoviesButton);
+        buttonPanel.add(recommendedButton);
+        buttonPanel.add(reviewsButton);
+        buttonPanel.add(topRatedButton);
+        buttonPanel.add(diagnosticsButton);
+
+        // Facet Panel
+        JPanel facetPanel = new JPanel();
+        facetPanel.setLayout(new BoxLayout(facetPanel, BoxLayout.Y_AXIS));
+        genreFacet = facetList(facetPanel, "Genre");
+        directorFacet = facetList(facetPanel, "Director");
+        yearFacet = facetList(facetPanel, "Year");
+        decadeFacet = new JComboBox<>();
+        decadeFacet.addItem("Any decade");
+        for (int decade = LocalDate.now().getYear() / 10 * 10; decade >= 1900; decade -= 10) {
+            decadeFacet.addItem(decade + "s");
+        }
+        decadeFacet.setMaximumSize(new Dimension(200, 25));
+        decadeFacet.setAlignmentX(Component.LEFT_ALIGNMENT);
+        // A decade replaces any single year picked before it
+        decadeFacet.addActionListener(e -> {
+            if (!updatingFacets) {
+                updatingFacets = true;
+                yearFacet.clearSelection();
+                updatingFacets = false;
+                applyFacets(selectedFacets());
+            }
+        });
+        facetPanel.add(decadeFacet);
+        JButton clearFacetsButton = new JButton("Clear Filters");
+        clearFacetsButton.setAlignmentX(Component.LEFT_ALIGNMENT);
+        facetPanel.add(clearFacetsButton);
 
         // Add components to frame
         add(searchPanel, BorderLayout.NORTH);
+        add(facetPanel, BorderLayout.WEST);
         add(new JScrollPane(movieTable), BorderLayout.CENTER);
         add(buttonPanel, BorderLayout.SOUTH);
 
         // Add action listeners
         searchButton.addActionListener(e -> searchMovies());
+        searchField.addActionListener(e -> searchMovies());
+        topRatedButton.addActionListener(e -> showTopRated());
+        diagnosticsButton.addActionListener(e -> showDiagnostics());
+        clearFacetsButton.addActionListener(e -> applyFacets(FacetFilter.NONE));
+
+        // Search as the user types, once typing pauses for the debounce window
+        Timer searchDebounce = new Timer(SEARCH_DEBOUNCE_MS, e -> searchMovies());
+        searchDebounce.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                searchDebounce.restart();
+            }
+        });
         addMovieButton.addActionListener(e -> showAddMovieDialog());
         addToWatchlistButton.addActionListener(e -> addToWatchlist());
         rateMovieButton.addActionListener(e -> showRateDialog());
         showWatchlistButton.addActionListener(e -> showWatchlist());
         showRatedMoviesButton.addActionListener(e -> showRatedMovies());
+        recommendedButton.addActionListener(e -> showRecommended());
+        reviewsButton.addActionListener(e -> showReviews());
 
         // Set minimum sizes for better appearance
         searchField.setPreferredSize(new Dimension(200, 25));
         movieTable.setRowHeight(25);
+        applyOfflineState();
+        refreshFacets();
+    }
+
+    // A titled list of facet values with an "All" entry on top; picking a value narrows by it
+    private JList<Object> facetList(JPanel facetPanel, String title) {
+        JList<Object> list = new JList<>(new DefaultListModel<>());
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(8);
+        list.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && !updatingFacets) {
+                applyFacets(selectedFacets());
+            }
+        });
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setBorder(BorderFactory.createTitledBorder(title));
+        scrollPane.setPreferredSize(new Dimension(200, 150));
+        scrollPane.setAlignmentX(Component.LEFT_ALIGNMENT);
+        facetPanel.add(scrollPane);
+        return list;
+    }
+
+    // A year picked in the list wins over the decade
+    private FacetFilter selectedFacets() {
+        Object genre = genreFacet.getSelectedValue();
+        Object director = directorFacet.getSelectedValue();
+        Object year = yearFacet.getSelectedValue();
+        Integer yearFrom = null;
+        Integer yearTo = null;
+        if (year instanceof FacetCounts.Value) {
+            yearFrom = yearTo = Integer.valueOf(((FacetCounts.Value) year).key());
+        } else if (decadeFacet.getSelectedIndex() > 0) {
+            String decade = decadeFacet.getSelectedItem().toString();
+            yearFrom = Integer.valueOf(decade.substring(0, decade.length() - 1));
+            yearTo = yearFrom + 9;
+        }
+        return new FacetFilter(
+                genre instanceof FacetCounts.Value ? ((FacetCounts.Value) genre).key() : null,
+                director instanceof FacetCounts.Value ? ((FacetCounts.Value) director).key() : null,
+                yearFrom, yearTo);
+    }
+
+    private void applyFacets(FacetFilter filter) {
+        if (filter.equals(facetFilter)) {
+            return;
+        }
+        facetFilter = filter;
+        refreshFacets();
+        searchMovies();
+    }
+
+    // Counts come from the repository's facet cache, so this is cheap after the first time
+    private void refreshFacets() {
+        FacetFilter filter = facetFilter;
+        queryRunner.run(metrics.timed("facets", () -> repository.facets(filter)), counts -> {
+            if (!filter.equals(facetFilter)) {
+                return;
+            }
+            updatingFacets = true;
+            try {
+                fillFacet(genreFacet, counts.genres(), filter.genre());
+                fillFacet(directorFacet, counts.directors(), filter.director());
+                fillFacet(yearFacet, counts.years(),
+                        filter.singleYear() == null ? null : filter.singleYear().toString());
+                if (!filter.hasYears()) {
+                    decadeFacet.setSelectedIndex(0);
+                }
+            } finally {
+                updatingFacets = false;
+            }
+        }, e -> statusLabel.setText("Facets unavailable: " + e.getMessage()));
+    }
+
+    private static void fillFacet(JList<Object> list, List<FacetCounts.Value> values, String selectedKey) {
+        DefaultListModel<Object> model = (DefaultListModel<Object>) list.getModel();
+        model.clear();
+        model.addElement("All");
+        int selected = 0;
+        for (FacetCounts.Value value : values) {
+            model.addElement(value);
+            if (value.key().equals(selectedKey)) {
+                selected = model.size() - 1;
+            }
+        }
+        list.setSelectedIndex(selected);
     }
 
     private void showLoginScreen() {
-        JDialog loginDialog = new JDialog(this, "Login", true);
+        if (offline) {
+            return;
+        }
+        loginDialog = new JDialog(this, "Login", true);
         loginDialog.setLayout(new GridBagLayout());
         GridBagConstraints gbc = new GridBagConstraints();
         gbc.insets = new Insets(5, 5, 5, 5);
@@ -216,17 +557,13 @@ public class Main extends JFrame {
 
     private boolean loginUser(String username, String password) {
         try {
-            MongoCollection<Document> users = database.getCollection("Users");
-            // In loginUser() method
-            Document user = users.find(
-                    and(
-                            eq("username", username),
-                            eq("password", password)  // Comparing plain text passwords
-                    )
-            ).first();
-
-            if (user != null) {
-                currentUserId = user.getObjectId("_id");
+            // Checks the (plain text) password and loads the user's watchlist and ratings at once
+            UserState state = new UserState(this::toMovieRow);
+            ObjectId userId = metrics.time("login", () -> accounts.login(username, password, state));
+
+            if (userId != null) {
+                currentUserId = userId;
+                userState = state;
                 return true;
             }
         } catch (Exception e) {
@@ -241,32 +578,13 @@ public class Main extends JFrame {
 
     private boolean signupUser(String username, String password, String email) {
         try {
-            MongoCollection<Document> users = database.getCollection("Users");
-
-            // Check for existing user
-            Document existingUser = users.find(
-                    or(
-                            eq("username", username),
-                            eq("email", email)
-                    )
-            ).first();
-
-            if (existingUser != null) {
+            if (metrics.time("signup", () -> accounts.signup(username, password, email)) == null) {
                 JOptionPane.showMessageDialog(this,
                         "Username or Email already exists!",
                         "Sign Up Error",
                         JOptionPane.ERROR_MESSAGE);
                 return false;
             }
-
-            // In signupUser() method
-            Document newUser = new Document()
-                    .append("username", username)
-                    .append("password", password)  // Storing password in plain text
-                    .append("email", email)
-                    .append("createdAt", new Date());
-
-            users.insertOne(newUser);
             return true;
         } catch (Exception e) {
             e.printStackTrace();
@@ -280,56 +598,138 @@ public class Main extends JFrame {
 
     private void searchMovies() {
         String searchTerm = searchField.getText().trim();
-        tableModel.setRowCount(0);
+        closeSearchModel();
+        shownSearchTerm = searchTerm.isEmpty() ? null : searchTerm;
+
+        if (searchTerm.isEmpty()) {
+            // Pages are pulled in as the viewport scrolls, so browsing everything stays cheap
+            queryRunner.cancelLoad();
+            searchModel = new PagedMovieTableModel(COLUMNS, browseSort, facetFilter, repository, this::toMovieRow,
+                    queryRunner.executor(), statusLabel::setText);
+            movieTable.setModel(searchModel);
+            searchModel.open(facetFilter.isEmpty() ? "Browse" : "Browse (filtered)");
+            return;
+        }
 
-        try {
-            MongoCollection<Document> movies = database.getCollection("Movies");
-            Document searchQuery = new Document();
+        movieTable.setModel(tableModel);
+        // The cache keeps unfiltered results; facets narrow them on the way to the table
+        FacetFilter filter = facetFilter;
+        String cacheKey = SearchResultCache.normalize(searchTerm);
+        List<Object[]> cached = searchCache.get(cacheKey);
+        statusLabel.setToolTipText(searchCache.stats());
+        if (cached != null) {
+            queryRunner.load("Search (cached)", sink -> cached.stream()
+                    .filter(row -> filter.matches(row[3], row[4], row[2]))
+                    .forEach(sink), e -> { });
+            return;
+        }
 
-            if (!searchTerm.isEmpty()) {
-                searchQuery.append("title",
-                        new Document("$regex", searchTerm)
-                                .append("$options", "i"));
+        queryRunner.load("Search", sink -> metrics.time("search", () -> {
+            // Only index results are cached; they are what invalidation reasons about
+            boolean cacheable = repository.isSearchIndexed();
+            List<Object[]> rows = new ArrayList<>();
+            repository.search(searchTerm, MAX_SEARCH_RESULTS, movie -> {
+                Object[] row = toMovieRow(movie);
+                if (filter.matches(movie)) {
+                    sink.accept(row);
+                }
+                rows.add(row);
+            });
+            if (cacheable) {
+                searchCache.put(cacheKey, rows);
             }
+            return null;
+        }), e -> JOptionPane.showMessageDialog(this,
+                "Error searching movies: " + e.getMessage(),
+                "Search Error",
+                JOptionPane.ERROR_MESSAGE));
+    }
 
-            FindIterable<Document> results = movies.find(searchQuery);
-            for (Document movie : results) {
-                Object[] row = {
-                        movie.getObjectId("_id").toString(),
-                        movie.getString("title"),
-                        movie.getString("releaseDate"),
-                        movie.getString("genre"),
-                        movie.getString("director"),
-                        getAverageRating(movie.getObjectId("_id"))
-                };
-                tableModel.addRow(row);
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                    "Error searching movies: " + e.getMessage(),
-                    "Search Error",
-                    JOptionPane.ERROR_MESSAGE);
+    // Sorting happens in the database, so it applies to browsing the whole catalog; clicking
+    // the same header again flips the direction
+    private void sortBy(MovieSort.Key key) {
+        if (!searchField.getText().trim().isEmpty() || searchModel == null) {
+            statusLabel.setText("Clear the search box to sort the whole catalog");
+            return;
         }
+        boolean descending = browseSort.key() == key && !browseSort.descending();
+        browseSort = new MovieSort(key, descending);
+        searchMovies();
     }
 
-    private Double getAverageRating(ObjectId movieId) {
-        try {
-            MongoCollection<Document> ratings = database.getCollection("Ratings");
-            List<Document> pipeline = Arrays.asList(
-                    new Document("$match", new Document("movieId", movieId)),
-                    new Document("$group", new Document("_id", null)
-                            .append("averageRating", new Document("$avg", "$rating")))
-            );
-
-            Document result = ratings.aggregate(pipeline).first();
-            if (result != null) {
-                return Math.round(result.getDouble("averageRating") * 10.0) / 10.0;
+    private void closeSearchModel() {
+        if (searchModel != null) {
+            searchModel.close();
+            searchModel = null;
+        }
+    }
+
+    // Column 0 keeps the ObjectId itself; the table shows its hex form. The last two values sit
+    // past the shown columns: the movie's ratingSum and ratingCount, so a new rating can patch
+    // the average in place
+    private Object[] toMovieRow(MovieRow movie) {
+        return new Object[]{
+                movie.id(),
+                movie.title(),
+                movie.releaseDate(),
+                movie.genre(),
+                movie.director(),
+                movie.userRating() != null ? movie.userRating() : movie.averageRating(),
+                movie.ratingSum(),
+                movie.ratingCount()
+        };
+    }
+
+    // The new movie goes into the view on screen if that view would list it, instead of
+    // reloading the view
+    private void showAddedMovie(Document movie) {
+        MovieRow added = MovieRow.of(movie);
+        if (searchModel != null) {
+            searchModel.insert(added);
+            return;
+        }
+        if (shownSearchTerm == null || !facetFilter.matches(added) || tableModel.indexOf(added.id()) >= 0) {
+            return;
+        }
+        int rank = searchRank(shownSearchTerm, movie);
+        if (rank >= 0 && rank < MAX_SEARCH_RESULTS) {
+            tableModel.insertRow(rank, toMovieRow(added));
+            if (tableModel.getRowCount() > MAX_SEARCH_RESULTS) {
+                tableModel.removeRow(MAX_SEARCH_RESULTS);
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return 0.0;
+    }
+
+    // Where the movie ranks among the search results on screen, from a throwaway index over
+    // just those rows; -1 if it doesn't match the term
+    private int searchRank(String term, Document movie) {
+        MovieSearchIndex shown = new MovieSearchIndex();
+        for (int i = 0; i < tableModel.getRowCount(); i++) {
+            Object[] row = tableModel.row(i);
+            shown.add((ObjectId) row[0], (String) row[1], (String) row[4], (String) row[3]);
+        }
+        shown.add(movie);
+        return shown.search(term, tableModel.getRowCount() + 1).indexOf(movie.getObjectId("_id"));
+    }
+
+    // The rating column shows the movie's average, so the new rating is folded into the totals
+    // the row was loaded with and only that cell changes
+    private void showRating(ObjectId movieId, Object[] row, int rating) {
+        int column = MovieSort.Key.RATING.ordinal();
+        double average = MovieRepository.average(((Number) row[ROW_LENGTH - 2]).longValue() + rating,
+                ((Number) row[ROW_LENGTH - 1]).longValue() + 1);
+        tableModel.updateValue(movieId, column, average);
+        if (searchModel != null) {
+            searchModel.updateValue(movieId, column, average);
+        }
+    }
+
+    // Repaints the movie's row so its watchlist and rated markers show
+    private void rowChanged(ObjectId movieId) {
+        tableModel.rowChanged(movieId);
+        if (searchModel != null) {
+            searchModel.rowChanged(movieId);
+        }
     }
 
     private void showAddMovieDialog() {
@@ -371,25 +771,47 @@ public class Main extends JFrame {
         dialog.add(saveButton, gbc);
 
         saveButton.addActionListener(e -> {
-            try {
-                Document movie = new Document()
-                        .append("title", titleField.getText())
-                        .append("releaseDate", releaseDateField.getText())
-                        .append("genre", genreField.getText())
-                        .append("director", directorField.getText())
-                        .append("addedDate", new Date());
-
-                database.getCollection("Movies").insertOne(movie);
+            // Stored as a real date so sorting and year filters use the indexes
+            String releaseDateText = releaseDateField.getText().trim();
+            LocalDate releaseDate = ReleaseDates.parse(releaseDateText);
+            if (!releaseDateText.isEmpty() && releaseDate == null) {
+                JOptionPane.showMessageDialog(dialog,
+                        "Release date should look like 1999-03-31, or just the year.",
+                        "Invalid Release Date",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            Document movie = new Document()
+                    .append("title", titleField.getText());
+            if (releaseDate != null) {
+                movie.append("releaseDate", ReleaseDates.toDate(releaseDate))
+                        .append("year", releaseDate.getYear());
+            }
+            movie.append("genre", genreField.getText())
+                    .append("director", directorField.getText())
+                    .append("addedDate", new Date())
+                    .append("ratingSum", 0)
+                    .append("ratingCount", 0)
+                    .append("avgRating", 0.0);
+
+            saveButton.setEnabled(false);
+            queryRunner.run(metrics.timed("add", () -> repository.addMovie(movie)), movieId -> {
+                movie.put("_id", movieId);
+                // Only searches the new movie would show up in are stale
+                MovieSearchIndex added = new MovieSearchIndex();
+                added.add(movie);
+                searchCache.invalidateTerms(term -> !added.search(term, 1).isEmpty());
                 dialog.dispose();
-                searchMovies(); // Refresh the movie list
+                showAddedMovie(movie);
+                refreshFacets();
                 JOptionPane.showMessageDialog(this, "Movie added successfully!");
-            } catch (Exception ex) {
-                ex.printStackTrace();
+            }, ex -> {
+                saveButton.setEnabled(true);
                 JOptionPane.showMessageDialog(dialog,
                         "Error adding movie: " + ex.getMessage(),
                         "Error",
                         JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
 
         dialog.pack();
@@ -398,53 +820,60 @@ public class Main extends JFrame {
     }
 
     private void addToWatchlist() {
+        if (userState == null) {
+            JOptionPane.showMessageDialog(this, "Please log in to use your watchlist!");
+            return;
+        }
         int selectedRow = movieTable.getSelectedRow();
         if (selectedRow == -1) {
             JOptionPane.showMessageDialog(this, "Please select a movie first!");
             return;
         }
 
-        try {
-            String movieIdStr = (String) movieTable.getValueAt(selectedRow, 0);
-            ObjectId movieId = new ObjectId(movieIdStr);
-
-            MongoCollection<Document> watchlist = database.getCollection("Watchlist");
-
-            // Check if movie is already in watchlist
-            Document existing = watchlist.find(
-                    and(
-                            eq("userId", currentUserId),
-                            eq("movieId", movieId)
-                    )
-            ).first();
-
-            if (existing != null) {
-                JOptionPane.showMessageDialog(this, "Movie is already in your watchlist!");
-                return;
-            }
-
-            Document watchlistEntry = new Document()
-                    .append("userId", currentUserId)
-                    .append("movieId", movieId)
-                    .append("addedDate", new Date());
-
-            watchlist.insertOne(watchlistEntry);
-            JOptionPane.showMessageDialog(this, "Movie added to watchlist successfully!");
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                    "Error adding to watchlist: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
+        ObjectId movieId = (ObjectId) movieTable.getValueAt(selectedRow, 0);
+        if (movieId == null) {
+            JOptionPane.showMessageDialog(this, "Please wait for the movie to finish loading!");
+            return;
+        }
+        if (userState.isWatchlisted(movieId)) {
+            JOptionPane.showMessageDialog(this, "Movie is already in your watchlist!");
+            return;
         }
+        ObjectId userId = currentUserId;
+        Object[] row = tableRow(selectedRow);
+
+        queryRunner.run(metrics.timed("watchlist-add", () -> repository.addToWatchlist(userId, movieId)), added -> {
+            // Either way it is in the watchlist now
+            userState.addWatchlisted(movieId, row);
+            rowChanged(movieId);
+            JOptionPane.showMessageDialog(this, added
+                    ? "Movie added to watchlist successfully!"
+                    : "Movie is already in your watchlist!");
+        }, e -> JOptionPane.showMessageDialog(this,
+                "Error adding to watchlist: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE));
     }
 
     private void showRateDialog() {
+        if (userState == null) {
+            JOptionPane.showMessageDialog(this, "Please log in to rate movies!");
+            return;
+        }
         int selectedRow = movieTable.getSelectedRow();
         if (selectedRow == -1) {
             JOptionPane.showMessageDialog(this, "Please select a movie to rate!");
             return;
         }
+        if (movieTable.getValueAt(selectedRow, 0) == null) {
+            JOptionPane.showMessageDialog(this, "Please wait for the movie to finish loading!");
+            return;
+        }
+        if (userState.isRated((ObjectId) movieTable.getValueAt(selectedRow, 0))) {
+            JOptionPane.showMessageDialog(this, "You have already rated this movie!");
+            return;
+        }
+        Object[] row = tableRow(selectedRow);
 
         JDialog dialog = new JDialog(this, "Rate Movie", true);
         dialog.setLayout(new GridBagLayout());
@@ -472,43 +901,32 @@ public class Main extends JFrame {
         gbc.gridwidth = 2;
         dialog.add(submitButton, gbc);
 
+        ObjectId movieId = (ObjectId) movieTable.getValueAt(selectedRow, 0);
+        ObjectId userId = currentUserId;
+
         submitButton.addActionListener(e -> {
-            try {
-                String movieIdStr = (String) movieTable.getValueAt(selectedRow, 0);
-                ObjectId movieId = new ObjectId(movieIdStr);
-                MongoCollection<Document> ratings1 = database.getCollection("Ratings");
-
-                // Check if user has already rated this movie
-                Document existingRating = ratings1.find(
-                        and(
-                                eq("userId", currentUserId),
-                                eq("movieId", movieId)
-                        )
-                ).first();
-
-                if (existingRating != null) {
+            int ratingValue = Integer.parseInt((String) ratingCombo.getSelectedItem());
+            String review = reviewArea.getText();
+
+            submitButton.setEnabled(false);
+            queryRunner.run(metrics.timed("rate", () -> repository.addRating(userId, movieId, ratingValue, review)), inserted -> {
+                if (!inserted) {
+                    submitButton.setEnabled(true);
                     JOptionPane.showMessageDialog(dialog, "You have already rated this movie!");
                     return;
                 }
-
-                Document rating = new Document()
-                        .append("userId", currentUserId)
-                        .append("movieId", movieId)
-                        .append("rating", Integer.parseInt((String) ratingCombo.getSelectedItem()))
-                        .append("review", reviewArea.getText())
-                        .append("ratedDate", new Date());
-
-                ratings1.insertOne(rating);
+                userState.addRated(movieId, row, ratingValue);
+                searchCache.invalidateMovie(movieId);
                 dialog.dispose();
-                searchMovies(); // Refresh to show updated rating
+                showRating(movieId, row, ratingValue);
                 JOptionPane.showMessageDialog(this, "Rating submitted successfully!");
-            } catch (Exception ex) {
-                ex.printStackTrace();
+            }, ex -> {
+                submitButton.setEnabled(true);
                 JOptionPane.showMessageDialog(dialog,
                         "Error submitting rating: " + ex.getMessage(),
                         "Error",
                         JOptionPane.ERROR_MESSAGE);
-            }
+            });
         });
 
         dialog.pack();
@@ -516,64 +934,175 @@ public class Main extends JFrame {
         dialog.setVisible(true);
     }
 
+    // Both personal views come from the session's user state, without a query
     private void showWatchlist() {
-        tableModel.setRowCount(0);
-
-        try {
-            MongoCollection<Document> watchlist = database.getCollection("Watchlist");
-            MongoCollection<Document> movies = database.getCollection("Movies");
-
-            for (Document entry : watchlist.find(eq("userId", currentUserId))) {
-                Document movie = movies.find(eq("_id", entry.getObjectId("movieId"))).first();
-                if (movie != null) {
-                    Object[] row = {
-                            movie.getObjectId("_id").toString(),
-                            movie.getString("title"),
-                            movie.getString("releaseDate"),
-                            movie.getString("genre"),
-                            movie.getString("director"),
-                            getAverageRating(movie.getObjectId("_id"))
-                    };
-                    tableModel.addRow(row);
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                    "Error loading watchlist: " + e.getMessage(),
-                    "Error",
-                    JOptionPane.ERROR_MESSAGE);
+        if (userState == null || currentUserId == null) {
+            JOptionPane.showMessageDialog(this, "Please log in to see your watchlist!");
+            return;
         }
+        List<Object[]> rows = userState.watchlistRows();
+
+        closeSearchModel();
+        shownSearchTerm = null;
+        movieTable.setModel(tableModel);
+        queryRunner.load("Watchlist", sink -> metrics.time("watchlist", () -> {
+            rows.forEach(sink);
+            return null;
+        }), e -> { });
     }
 
     private void showRatedMovies() {
-        tableModel.setRowCount(0);
+        if (userState == null || currentUserId == null) {
+            JOptionPane.showMessageDialog(this, "Please log in to see your rated movies!");
+            return;
+        }
+        List<Object[]> rows = userState.ratedRows();
+
+        closeSearchModel();
+        shownSearchTerm = null;
+        movieTable.setModel(tableModel);
+        queryRunner.load("Rated", sink -> metrics.time("rated", () -> {
+            rows.forEach(sink);
+            return null;
+        }), e -> { });
+    }
 
-        try {
-            MongoCollection<Document> ratings = database.getCollection("Ratings");
-            MongoCollection<Document> movies = database.getCollection("Movies");
-
-            for (Document rating : ratings.find(eq("userId", currentUserId))) {
-                Document movie = movies.find(eq("_id", rating.getObjectId("movieId"))).first();
-                if (movie != null) {
-                    Object[] row = {
-                            movie.getObjectId("_id").toString(),
-                            movie.getString("title"),
-                            movie.getString("releaseDate"),
-                            movie.getString("genre"),
-                            movie.getString("director"),
-                            rating.getInteger("rating")
-                    };
-                    tableModel.addRow(row);
+    // The selected movie's values as the table holds them, whichever model is in use
+    private Object[] tableRow(int viewRow) {
+        int row = movieTable.convertRowIndexToModel(viewRow);
+        Object[] values = new Object[ROW_LENGTH];
+        for (int column = 0; column < values.length; column++) {
+            values[column] = movieTable.getModel().getValueAt(row, column);
+        }
+        return values;
+    }
+
+    private void showRecommended() {
+        if (userState == null || currentUserId == null) {
+            JOptionPane.showMessageDialog(this, "Please log in to get recommendations!");
+            return;
+        }
+        ObjectId userId = currentUserId;
+
+        closeSearchModel();
+        shownSearchTerm = null;
+        movieTable.setModel(tableModel);
+        queryRunner.load("Recommended", sink -> metrics.time("recommended", () -> {
+            repository.recommended(userId, RECOMMENDATIONS, movie -> sink.accept(toMovieRow(movie)));
+            return null;
+        }), e -> JOptionPane.showMessageDialog(this,
+                "Error loading recommendations: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE));
+    }
+
+    // The selected movie's reviews, newest first; older pages load on request
+    private void showReviews() {
+        int selectedRow = movieTable.getSelectedRow();
+        if (selectedRow == -1) {
+            JOptionPane.showMessageDialog(this, "Please select a movie first!");
+            return;
+        }
+        ObjectId movieId = (ObjectId) movieTable.getValueAt(selectedRow, 0);
+        if (movieId == null) {
+            JOptionPane.showMessageDialog(this, "Please wait for the movie to finish loading!");
+            return;
+        }
+
+        JDialog dialog = new JDialog(this, "Reviews: " + movieTable.getValueAt(selectedRow, 1), false);
+        dialog.setLayout(new BorderLayout(5, 5));
+        JTextArea reviewArea = new JTextArea(20, 50);
+        reviewArea.setEditable(false);
+        reviewArea.setLineWrap(true);
+        reviewArea.setWrapStyleWord(true);
+        JButton olderButton = new JButton("Load Older Reviews");
+        dialog.add(new JScrollPane(reviewArea), BorderLayout.CENTER);
+        dialog.add(olderButton, BorderLayout.SOUTH);
+
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+        // The oldest review shown so far; the next page continues from it
+        ObjectId[] oldest = {null};
+        Runnable loadPage = () -> {
+            ObjectId before = oldest[0];
+            olderButton.setEnabled(false);
+            queryRunner.run(metrics.timed("reviews", () -> repository.reviews(movieId, before, REVIEW_PAGE_SIZE)), page -> {
+                for (Review review : page) {
+                    reviewArea.append(review.rating() + "/10, " + dateFormat.format(review.writtenAt()) + "\n"
+                            + review.text() + "\n\n");
                 }
+                if (before == null && page.isEmpty()) {
+                    reviewArea.setText("No reviews yet.");
+                }
+                if (!page.isEmpty()) {
+                    oldest[0] = page.get(page.size() - 1).id();
+                }
+                olderButton.setEnabled(page.size() == REVIEW_PAGE_SIZE);
+            }, e -> {
+                olderButton.setEnabled(true);
+                JOptionPane.showMessageDialog(dialog,
+                        "Error loading reviews: " + e.getMessage(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            });
+        };
+        olderButton.addActionListener(e -> loadPage.run());
+        loadPage.run();
+
+        dialog.pack();
+        dialog.setLocationRelativeTo(this);
+        dialog.setVisible(true);
+    }
+
+    private void showTopRated() {
+        queryRunner.run(metrics.timed("genres", repository::genres), genres -> {
+            JComboBox<String> genreCombo = new JComboBox<>();
+            genreCombo.addItem("All genres");
+            genres.forEach(genreCombo::addItem);
+            // The leaderboard indexes only hold movies with LEADERBOARD_MIN_VOTES ratings or more, so a
+            // lower minimum would have Mongo scan and sort every movie
+            JSpinner minVotesSpinner = new JSpinner(new SpinnerNumberModel(10, SchemaBootstrap.LEADERBOARD_MIN_VOTES, 1000000, 1));
+
+            JPanel panel = new JPanel(new GridLayout(2, 2, 5, 5));
+            panel.add(new JLabel("Genre:"));
+            panel.add(genreCombo);
+            panel.add(new JLabel("Minimum votes:"));
+            panel.add(minVotesSpinner);
+            if (JOptionPane.showConfirmDialog(this, panel, "Top Rated",
+                    JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) {
+                return;
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this,
-                    "Error loading rated movies: " + e.getMessage(),
+
+            String genre = genreCombo.getSelectedIndex() == 0 ? null : (String) genreCombo.getSelectedItem();
+            int minVotes = (Integer) minVotesSpinner.getValue();
+            closeSearchModel();
+            shownSearchTerm = null;
+            movieTable.setModel(tableModel);
+            queryRunner.load("Top rated", sink -> metrics.time("top-rated", () -> {
+                repository.topRated(genre, minVotes, TOP_RATED_LIMIT, movie -> sink.accept(toMovieRow(movie)));
+                return null;
+            }), e -> JOptionPane.showMessageDialog(this,
+                    "Error loading top rated movies: " + e.getMessage(),
                     "Error",
-                    JOptionPane.ERROR_MESSAGE);
-        }
+                    JOptionPane.ERROR_MESSAGE));
+        }, e -> JOptionPane.showMessageDialog(this,
+                "Error loading genres: " + e.getMessage(),
+                "Error",
+                JOptionPane.ERROR_MESSAGE));
+    }
+
+    private void showDiagnostics() {
+        WriteBehindQueue writeBehind = mongoRepository == null ? null : mongoRepository.writeBehindQueue();
+        new DiagnosticsDialog(this, metrics, () -> {
+            List<String> lines = new ArrayList<>();
+            lines.add("Search cache: " + searchCache.stats());
+            if (writeBehind != null) {
+                lines.add("Pending writes: " + writeBehind.pendingCount() + ", failed: " + writeBehind.failedCount());
+                if (writeBehind.lastFailure() != null) {
+                    lines.add(writeBehind.lastFailure());
+                }
+            }
+            return lines;
+        }).setVisible(true);
     }
 
     public static void main(String[] args) {
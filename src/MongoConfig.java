@@ -0,0 +1,145 @@
+package org.example;
+
+import com.mongodb.ConnectionString;
+import com.mongodb.MongoClientSettings;
+import com.mongodb.MongoCompressor;
+import com.mongodb.ReadPreference;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+// Client settings for the browser, read from a properties file (-Dmoviebrowser.config, default
+// ~/.movie-browser/mongo.properties), then environment variables, then -D system properties,
+// later sources winning. A key like mongo.pool.maxSize is MOVIEBROWSER_MONGO_POOL_MAXSIZE in the
+// environment. Every key has a default that works against a local mongod.
+public class MongoConfig {
+    private final Properties properties;
+
+    private MongoConfig(Properties properties) {
+        this.properties = properties;
+    }
+
+    public static MongoConfig load() {
+        Properties properties = new Properties();
+        String configured = System.getProperty("moviebrowser.config");
+        Path file = configured != null ? Paths.get(configured)
+                : Paths.get(System.getProperty("user.home"), ".movie-browser", "mongo.properties");
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return new MongoConfig(properties);
+    }
+
+    public String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv("MOVIEBROWSER_" + key.toUpperCase().replace('.', '_'));
+        }
+        if (value == null) {
+            value = properties.getProperty(key);
+        }
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    private int getInt(String key, int defaultValue) {
+        return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+    }
+
+    public String uri() {
+        return get("mongo.uri", "mongodb://localhost:27017");
+    }
+
+    public String databaseName() {
+        return get("mongo.database", "Movie-Browser");
+    }
+
+    // Catalog reads (browse, search, personal lists) can go to secondaries...
+    public ReadPreference browseReadPreference() {
+        return ReadPreference.valueOf(get("mongo.browseReadPreference", "secondaryPreferred"));
+    }
+
+    // ...except for this long after the user's own write, when they go to the primary so the
+    // user sees what they just did
+    public long primaryAfterWriteMillis() {
+        return getInt("mongo.primaryAfterWriteMs", 10000);
+    }
+
+    // Anything in the URI applies first; the keys here override it. Logins and writes keep the
+    // client's default read preference, which is primary unless the URI says otherwise.
+    public MongoClientSettings.Builder clientSettings() {
+        int minPool = getInt("mongo.pool.minSize", 2);
+        int maxPool = getInt("mongo.pool.maxSize", 20);
+        int maxConnecting = getInt("mongo.pool.maxConnecting", 2);
+        int maxWaitMs = getInt("mongo.pool.maxWaitMs", 2000);
+        int maxIdleMs = getInt("mongo.pool.maxIdleMs", 60000);
+        int connectTimeoutMs = getInt("mongo.connectTimeoutMs", 5000);
+        int socketTimeoutMs = getInt("mongo.socketTimeoutMs", 30000);
+        // Give up soon enough to fall back to the snapshot
+        int serverSelectionTimeoutMs = getInt("mongo.serverSelectionTimeoutMs", 5000);
+
+        return MongoClientSettings.builder()
+                .applyConnectionString(new ConnectionString(uri()))
+                .applyToConnectionPoolSettings(pool -> pool
+                        .minSize(minPool)
+                        .maxSize(maxPool)
+                        .maxConnecting(maxConnecting)
+                        .maxWaitTime(maxWaitMs, TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(maxIdleMs, TimeUnit.MILLISECONDS))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                        .readTimeout(socketTimeoutMs, TimeUnit.MILLISECONDS))
+                .applyToClusterSettings(cluster -> cluster
+                        .serverSelectionTimeout(serverSelectionTimeoutMs, TimeUnit.MILLISECONDS))
+                .compressorList(compressors());
+    }
+
+    // Offered in order; the server picks the first it also supports. snappy and zstd need
+    // snappy-java and zstd-jni on the classpath, so they are skipped when those are missing.
+    private List<MongoCompressor> compressors() {
+        List<MongoCompressor> compressors = new ArrayList<>();
+        for (String name : get("mongo.compressors", "zstd,snappy").split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "zstd":
+                    if (onClasspath("com.github.luben.zstd.Zstd", name)) {
+                        compressors.add(MongoCompressor.createZstdCompressor());
+                    }
+                    break;
+                case "snappy":
+                    if (onClasspath("org.xerial.snappy.Snappy", name)) {
+                        compressors.add(MongoCompressor.createSnappyCompressor());
+                    }
+                    break;
+                case "zlib":
+                    compressors.add(MongoCompressor.createZlibCompressor());
+                    break;
+                case "":
+                case "none":
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown compressor: " + name);
+            }
+        }
+        return compressors;
+    }
+
+    private static boolean onClasspath(String className, String compressor) {
+        try {
+            Class.forName(className, false, MongoConfig.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            System.err.println("Wire compression " + compressor + " unavailable: " + className + " not on the classpath");
+            return false;
+        }
+    }
+}
@@ -0,0 +1,639 @@
+package org.example;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.mongodb.client.model.Filters.*;
+
+// MovieRepository backed by the Movie-Browser database
+public class MongoMovieRepository implements MovieRepository, UserAccounts {
+    private final MongoDatabase database;
+    private final MovieSearchIndex searchIndex = new MovieSearchIndex();
+    // Only set when write-behind is on
+    private final WriteBehindQueue writeBehind;
+    private final Consumer<ObjectId> onRatingApplied;
+    private final ReadPreference browseReadPreference;
+    private final long primaryAfterWriteMillis;
+    // The last write through this repository, for callers not bound to a user by ReadContext
+    private volatile long lastWriteMillis;
+    // Per user, for the movie server's requests; entries past primaryAfterWriteMillis are pruned
+    private final Map<ObjectId, Long> lastWriteByUser = new ConcurrentHashMap<>();
+    private final CodecRegistry rowCodecs;
+    // Only the movie server builds a model; other clients read the stored SimilarityTable
+    private volatile ItemRecommender recommender;
+    private final FacetDictionary facetDictionary;
+    // Inserts through this repository patch cached counts; the TTL bounds drift from other writers
+    private final FacetCache facetCache = new FacetCache(64, 5 * 60 * 1000);
+
+    public MongoMovieRepository(MongoDatabase database, boolean writeBehind, Consumer<ObjectId> onRatingApplied) {
+        this(database, writeBehind, onRatingApplied, ReadPreference.primary(), 0);
+    }
+
+    // Reads go to browseReadPreference, except for primaryAfterWriteMillis after a write made
+    // through this repository, so the user's own changes are never read back stale. When calls
+    // are bound to users (ReadContext), only the user who wrote reads from the primary.
+    public MongoMovieRepository(MongoDatabase database, boolean writeBehind, Consumer<ObjectId> onRatingApplied,
+                                ReadPreference browseReadPreference, long primaryAfterWriteMillis) {
+        this.database = database;
+        this.writeBehind = writeBehind ? new WriteBehindQueue(database) : null;
+        this.onRatingApplied = onRatingApplied;
+        this.browseReadPreference = browseReadPreference;
+        this.primaryAfterWriteMillis = primaryAfterWriteMillis;
+        this.rowCodecs = CodecRegistries.fromRegistries(
+                CodecRegistries.fromCodecs(new MovieRowCodec()), database.getCodecRegistry());
+        this.facetDictionary = new FacetDictionary(database.getCollection(FacetDictionary.COLLECTION));
+    }
+
+    public WriteBehindQueue writeBehindQueue() {
+        return writeBehind;
+    }
+
+    // Builds the search index in the background; searches use the text index until it's done.
+    // A local snapshot is much faster to read than Movies, so it is preferred when there is one,
+    // and movies changed since it was written arrive through indexMovie.
+    public void startSearchIndexBuild(CatalogSnapshot snapshot) {
+        Thread indexBuilder = new Thread(() -> {
+            try {
+                if (snapshot != null) {
+                    for (int row = 0; row < snapshot.size(); row++) {
+                        searchIndex.add(snapshot.movie(row));
+                    }
+                    searchIndex.markReady();
+                } else {
+                    searchIndex.build(movies().withReadPreference(browseReadPreference));
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "search-index-build");
+        indexBuilder.setDaemon(true);
+        indexBuilder.start();
+    }
+
+    // Reads all of Ratings once and builds the recommendation model in the background, then
+    // stores its neighbour lists for the clients that read Mongo directly
+    public void startRecommenderBuild() {
+        ItemRecommender model = new ItemRecommender(Runtime.getRuntime().availableProcessors());
+        recommender = model;
+        Thread recommenderBuilder = new Thread(() -> {
+            try {
+                model.load(database.getCollection("Ratings").withReadPreference(browseReadPreference));
+                SimilarityTable.write(database, model);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }, "recommender-build");
+        recommenderBuilder.setDaemon(true);
+        recommenderBuilder.start();
+    }
+
+    public void close() {
+        ItemRecommender model = recommender;
+        if (model != null) {
+            model.close();
+        }
+    }
+
+    public void indexMovie(Document movie) {
+        searchIndex.add(movie);
+    }
+
+    @Override
+    public long countMovies(FacetFilter filter) {
+        if (filter.isEmpty()) {
+            return forReads(movies()).estimatedDocumentCount();
+        }
+        return facets(filter).total();
+    }
+
+    // Unfiltered counts are the totals stored in FacetValues; filtered ones are one $facet over
+    // the movies the filter's code index finds. Either way the result is cached per filter.
+    @Override
+    public FacetCounts facets(FacetFilter filter) {
+        FacetCounts counts = facetCache.get(filter);
+        if (counts != null) {
+            return counts;
+        }
+        if (filter.isEmpty()) {
+            Document stored = forReads(database.getCollection(FacetDictionary.COLLECTION)).aggregate(
+                    Collections.singletonList(FacetDictionary.countsStage(FacetCounts.LIMIT))).first();
+            counts = new FacetCounts(forReads(movies()).estimatedDocumentCount(),
+                    storedValues(stored, "genre"), storedValues(stored, "director"), storedValues(stored, "year"));
+        } else {
+            Document facets = new Document("genre", groupBy("$genreCode"))
+                    .append("director", groupBy("$directorCode"))
+                    .append("year", groupBy("$year"))
+                    .append("total", Collections.singletonList(new Document("$count", "movies")));
+            Document result = forReads(movies()).aggregate(Arrays.asList(
+                    new Document("$match", facetFilter(filter)),
+                    new Document("$facet", facets))).first();
+            List<Document> total = result.getList("total", Document.class);
+            counts = new FacetCounts(total.isEmpty() ? 0 : total.get(0).get("movies", Number.class).longValue(),
+                    codedValues(result, "genre"), codedValues(result, "director"), yearValues(result));
+        }
+        facetCache.put(filter, counts);
+        return counts;
+    }
+
+    private static List<Document> groupBy(String field) {
+        return Arrays.asList(
+                new Document("$match", new Document(field.substring(1), new Document("$ne", null))),
+                new Document("$sortByCount", field),
+                new Document("$limit", FacetCounts.LIMIT));
+    }
+
+    private static List<FacetCounts.Value> storedValues(Document stored, String field) {
+        List<FacetCounts.Value> values = new ArrayList<>();
+        for (Document entry : stored.getList(field, Document.class)) {
+            values.add(new FacetCounts.Value(entry.getString("key"), entry.getString("label"),
+                    entry.get("count", Number.class).longValue()));
+        }
+        return values;
+    }
+
+    // Codes back to keys and labels in one FacetValues query per field
+    private List<FacetCounts.Value> codedValues(Document result, String field) {
+        List<Document> groups = result.getList(field, Document.class);
+        List<Integer> codes = new ArrayList<>();
+        for (Document group : groups) {
+            codes.add(group.getInteger("_id"));
+        }
+        Map<Integer, Document> entries = facetDictionary.entries(field, codes);
+        List<FacetCounts.Value> values = new ArrayList<>();
+        for (Document group : groups) {
+            Document entry = entries.get(group.getInteger("_id"));
+            if (entry != null) {
+                values.add(new FacetCounts.Value(entry.getString("key"), entry.getString("label"),
+                        group.get("count", Number.class).longValue()));
+            }
+        }
+        return values;
+    }
+
+    private static List<FacetCounts.Value> yearValues(Document result) {
+        List<FacetCounts.Value> values = new ArrayList<>();
+        for (Document group : result.getList("year", Document.class)) {
+            String year = group.get("_id").toString();
+            values.add(new FacetCounts.Value(year, year, group.get("count", Number.class).longValue()));
+        }
+        return values;
+    }
+
+    // Equality on the indexed codes, range on the indexed year. A genre or director no movie
+    // has ever had matches nothing.
+    private Bson facetFilter(FacetFilter filter) {
+        List<Bson> clauses = new ArrayList<>();
+        if (filter.genre() != null) {
+            Integer code = facetDictionary.find("genre", filter.genre());
+            clauses.add(code == null ? in("_id", Collections.emptyList()) : eq("genreCode", code));
+        }
+        if (filter.director() != null) {
+            Integer code = facetDictionary.find("director", filter.director());
+            clauses.add(code == null ? in("_id", Collections.emptyList()) : eq("directorCode", code));
+        }
+        // A year range is a range scan of the year index
+        if (filter.yearFrom() != null) {
+            clauses.add(gte("year", filter.yearFrom()));
+        }
+        if (filter.yearTo() != null) {
+            clauses.add(lte("year", filter.yearTo()));
+        }
+        return clauses.isEmpty() ? new Document() : and(clauses);
+    }
+
+    private Bson browseFilter(MovieSort sort, FacetFilter filter, MovieRow after) {
+        return filter.isEmpty() ? keysetFilter(sort, after) : and(facetFilter(filter), keysetFilter(sort, after));
+    }
+
+    // Every sort key has a (field, _id) index, walked forwards or backwards; each facet code has
+    // one too, for filtered browsing in _id order
+    @Override
+    public List<MovieRow> moviesAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return forReads(movies()).find(browseFilter(sort, filter, after), MovieRow.class)
+                .projection(MovieRowCodec.FIELDS)
+                .sort(sortOrder(sort))
+                .limit(limit)
+                .into(new ArrayList<>(limit));
+    }
+
+    // Projected down to the sort keys, so the query is covered by the sort index
+    @Override
+    public List<MovieRow> movieKeysAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return forReads(movies()).find(browseFilter(sort, filter, after), MovieRow.class)
+                .projection(sortKeys(sort))
+                .sort(sortOrder(sort))
+                .limit(limit)
+                .into(new ArrayList<>(limit));
+    }
+
+    // One round trip: the server skips along the sort index instead of the client paging
+    @Override
+    public MovieRow movieKeyAt(MovieSort sort, FacetFilter filter, long offset) {
+        return forReads(movies()).find(browseFilter(sort, filter, null), MovieRow.class)
+                .projection(sortKeys(sort))
+                .sort(sortOrder(sort))
+                .skip((int) Math.min(offset, Integer.MAX_VALUE))
+                .limit(1)
+                .first();
+    }
+
+    private static Bson sortKeys(MovieSort sort) {
+        return sort.key() == MovieSort.Key.RATING
+                ? Projections.include("_id", "ratingSum", "ratingCount")
+                : Projections.include("_id", sort.key().field);
+    }
+
+    private static Bson sortOrder(MovieSort sort) {
+        List<String> fields = sort.key() == MovieSort.Key.ID
+                ? Collections.singletonList("_id")
+                : Arrays.asList(sort.key().field, "_id");
+        return sort.descending() ? Sorts.descending(fields) : Sorts.ascending(fields);
+    }
+
+    // Rows strictly after the given one in the sort order. Missing values sort first, and
+    // range operators never match them, so they need their own clauses.
+    private static Bson keysetFilter(MovieSort sort, MovieRow after) {
+        if (after == null) {
+            return new Document();
+        }
+        Bson nextId = sort.descending() ? lt("_id", after.id()) : gt("_id", after.id());
+        if (sort.key() == MovieSort.Key.ID) {
+            return nextId;
+        }
+        String field = sort.key().field;
+        Object value = sort.value(after);
+        // Stored as dates; rows whose text never parsed have no releaseDate at all
+        if (sort.key() == MovieSort.Key.RELEASE_DATE && value != null) {
+            LocalDate releaseDate = ReleaseDates.parse(value.toString());
+            value = releaseDate == null ? null : ReleaseDates.toDate(releaseDate);
+        }
+        Bson sameValue = and(eq(field, value), nextId);
+        if (value == null) {
+            return sort.descending() ? sameValue : or(sameValue, ne(field, null));
+        }
+        return sort.descending()
+                ? or(lt(field, value), sameValue, eq(field, null))
+                : or(gt(field, value), sameValue);
+    }
+
+    @Override
+    public boolean isSearchIndexed() {
+        return searchIndex.isReady();
+    }
+
+    @Override
+    public void search(String term, int limit, Consumer<MovieRow> sink) {
+        if (searchIndex.isReady()) {
+            streamMoviesById(searchIndex.search(term, limit), sink);
+            return;
+        }
+
+        // Index still building: let Mongo's text index rank the matches
+        try (MongoCursor<MovieRow> results = forReads(movies()).find(text(term), MovieRow.class)
+                .projection(Projections.fields(MovieRowCodec.FIELDS, Projections.metaTextScore("score")))
+                .sort(Sorts.metaTextScore("score"))
+                .limit(limit)
+                .iterator()) {
+            while (results.hasNext()) {
+                sink.accept(results.next());
+            }
+        }
+    }
+
+    // Fetches ranked ids in chunks with $in and emits them in rank order
+    private void streamMoviesById(List<ObjectId> ids, Consumer<MovieRow> sink) {
+        int chunkSize = PagedMovieTableModel.PAGE_SIZE;
+        for (int from = 0; from < ids.size(); from += chunkSize) {
+            List<ObjectId> chunk = ids.subList(from, Math.min(from + chunkSize, ids.size()));
+            Map<ObjectId, MovieRow> found = new HashMap<>();
+            for (MovieRow movie : forReads(movies()).find(in("_id", chunk), MovieRow.class)
+                    .projection(MovieRowCodec.FIELDS)) {
+                found.put(movie.id(), movie);
+            }
+            for (ObjectId id : chunk) {
+                MovieRow movie = found.get(id);
+                if (movie != null) {
+                    sink.accept(movie);
+                }
+            }
+        }
+    }
+
+    @Override
+    public double averageRating(ObjectId movieId) {
+        Document movie = forReads(movies()).find(eq("_id", movieId))
+                .projection(Projections.include("ratingSum", "ratingCount"))
+                .first();
+        return movie == null ? 0.0 : MovieRepository.average(movie);
+    }
+
+    // Served by the partial avgRating indexes, so it reads about limit movies rather than
+    // aggregating Ratings; avgRating is kept current by every rating write. Those indexes only
+    // hold movies with LEADERBOARD_MIN_VOTES ratings or more, so a lower minimum is raised to it
+    // rather than scanning and sorting the whole collection
+    @Override
+    public void topRated(String genre, int minVotes, int limit, Consumer<MovieRow> sink) {
+        minVotes = Math.max(minVotes, SchemaBootstrap.LEADERBOARD_MIN_VOTES);
+        Bson filter = genre == null
+                ? gte("ratingCount", minVotes)
+                : and(eq("genre", genre), gte("ratingCount", minVotes));
+        try (MongoCursor<MovieRow> movies = forReads(movies()).find(filter, MovieRow.class)
+                .projection(MovieRowCodec.FIELDS)
+                .sort(Sorts.descending("avgRating", "_id"))
+                .limit(limit)
+                .iterator()) {
+            while (movies.hasNext()) {
+                sink.accept(movies.next());
+            }
+        }
+    }
+
+    // Answered from the genre sort index
+    @Override
+    public List<String> genres() {
+        List<String> genres = forReads(movies()).distinct("genre", String.class).into(new ArrayList<>());
+        genres.removeIf(genre -> genre == null || genre.isEmpty());
+        Collections.sort(genres);
+        return genres;
+    }
+
+    @Override
+    public void watchlist(ObjectId userId, Consumer<MovieRow> sink) {
+        try (MongoCursor<MovieRow> entries = forReads(database.getCollection("Watchlist"))
+                .aggregate(userMoviesPipeline(userId), MovieRow.class).iterator()) {
+            while (entries.hasNext()) {
+                sink.accept(entries.next());
+            }
+        }
+    }
+
+    @Override
+    public void ratedMovies(ObjectId userId, Consumer<MovieRow> sink) {
+        try (MongoCursor<MovieRow> entries = forReads(database.getCollection("Ratings"))
+                .aggregate(userMoviesPipeline(userId), MovieRow.class).iterator()) {
+            while (entries.hasNext()) {
+                sink.accept(entries.next());
+            }
+        }
+    }
+
+    // From the model when this repository built one, otherwise from the stored neighbour rows.
+    // Cold start, or no model yet: fall back to the top-rated leaderboard
+    @Override
+    public void recommended(ObjectId userId, int limit, Consumer<MovieRow> sink) {
+        ItemRecommender model = recommender;
+        List<ObjectId> ids = model != null && model.isReady() ? model.recommend(userId, limit)
+                : SimilarityTable.recommend(forReads(database.getCollection("Ratings")),
+                forReads(database.getCollection(SimilarityTable.COLLECTION)), userId, limit);
+        if (ids.isEmpty()) {
+            topRated(null, SchemaBootstrap.LEADERBOARD_MIN_VOTES, limit, sink);
+            return;
+        }
+        streamMoviesById(ids, sink);
+    }
+
+    // Checks the credentials and loads the user's watchlist and ratings in the same round trip
+    @Override
+    public ObjectId login(String username, String password, UserState state) {
+        return loadUserState(and(eq("username", username), eq("password", password)), state);
+    }
+
+    // The unique username and email indexes settle races between two signups
+    @Override
+    public ObjectId signup(String username, String password, String email) {
+        MongoCollection<Document> users = database.getCollection("Users");
+        if (users.find(or(eq("username", username), eq("email", email))).first() != null) {
+            return null;
+        }
+        Document user = new Document()
+                .append("username", username)
+                .append("password", password)  // Storing password in plain text
+                .append("email", email)
+                .append("createdAt", new Date());
+        try {
+            users.insertOne(user);
+        } catch (MongoWriteException e) {
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return null;
+            }
+            throw e;
+        }
+        return user.getObjectId("_id");
+    }
+
+    // One aggregation from Users instead of one per personal view
+    @Override
+    public void loadUserState(ObjectId userId, UserState state) {
+        loadUserState(eq("_id", userId), state);
+    }
+
+    private ObjectId loadUserState(Bson user, UserState state) {
+        Document result = database.getCollection("Users").aggregate(Arrays.asList(
+                new Document("$match", user),
+                new Document("$limit", 1),
+                userLookup("Watchlist", "watchlist"),
+                userLookup("Ratings", "rated"),
+                new Document("$project", new Document("watchlist", 1).append("rated", 1))
+        )).first();
+        if (result == null) {
+            return null;
+        }
+        for (Document movie : result.getList("watchlist", Document.class)) {
+            state.addWatchlisted(MovieRow.of(movie));
+        }
+        for (Document movie : result.getList("rated", Document.class)) {
+            state.addRated(MovieRow.of(movie));
+        }
+        return result.getObjectId("_id");
+    }
+
+    private static Document userLookup(String from, String as) {
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match",
+                new Document("$expr", new Document("$eq", Arrays.asList("$userId", "$$user")))));
+        pipeline.addAll(userMoviesStages());
+        return new Document("$lookup", new Document("from", from)
+                .append("let", new Document("user", "$_id"))
+                .append("pipeline", pipeline)
+                .append("as", as));
+    }
+
+    // Joins a user's Watchlist or Ratings entries to their movies in one round trip
+    private List<Document> userMoviesPipeline(ObjectId userId) {
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", new Document("userId", userId)));
+        pipeline.addAll(userMoviesStages());
+        return pipeline;
+    }
+
+    // Entry -> movie row, flattened with the entry's rating (if any) as userRating
+    private static List<Document> userMoviesStages() {
+        return Arrays.asList(
+                new Document("$project", new Document("movieId", 1).append("rating", 1)),
+                new Document("$lookup", new Document("from", "Movies")
+                        .append("localField", "movieId")
+                        .append("foreignField", "_id")
+                        .append("as", "movie")),
+                new Document("$unwind", "$movie"),
+                new Document("$project", new Document("_id", "$movie._id")
+                        .append("title", "$movie.title")
+                        .append("releaseDate", "$movie.releaseDate")
+                        .append("releaseDateText", "$movie.releaseDateText")
+                        .append("genre", "$movie.genre")
+                        .append("director", "$movie.director")
+                        .append("ratingSum", "$movie.ratingSum")
+                        .append("ratingCount", "$movie.ratingCount")
+                        .append("userRating", "$rating"))
+        );
+    }
+
+    @Override
+    public ObjectId addMovie(Document movie) {
+        noteWrite(null);
+        if (!movie.containsKey("avgRating")) {
+            movie.append("avgRating", 0.0);
+        }
+        facetDictionary.encode(movie);
+        movies().insertOne(movie);
+        facetDictionary.counted(movie.getString("genre"), movie.getString("director"), movie.getInteger("year"));
+        facetCache.onInsert(movie.getString("genre"), movie.getString("director"),
+                ReleaseDates.text(movie.get("releaseDate")));
+        searchIndex.add(movie);
+        return movie.getObjectId("_id");
+    }
+
+    // A single upsert against the unique (userId, movieId) index; true when the entry is new.
+    // With write-behind on, the write is only queued and duplicates are resolved when it lands.
+    @Override
+    public boolean addToWatchlist(ObjectId userId, ObjectId movieId) {
+        Bson filter = and(eq("userId", userId), eq("movieId", movieId));
+        Bson update = Updates.setOnInsert("addedDate", new Date());
+        noteWrite(userId);
+        if (writeBehind != null) {
+            return writeBehind.enqueue("Watchlist:" + userId + ":" + movieId, "Watchlist",
+                    new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(true)), null);
+        }
+        return upsert(database.getCollection("Watchlist"), filter, update);
+    }
+
+    @Override
+    public boolean addRating(ObjectId userId, ObjectId movieId, int rating, String review) {
+        Bson filter = and(eq("userId", userId), eq("movieId", movieId));
+        // Ratings stays slim for the aggregations and joins; the review goes to Reviews
+        Bson update = Updates.combine(
+                Updates.setOnInsert("rating", rating),
+                Updates.setOnInsert("ratedDate", new Date()));
+        UpdateOneModel<Document> reviewWrite = review == null || review.trim().isEmpty() ? null
+                : ReviewDocuments.upsert(new ObjectId(), userId, movieId, rating, review);
+        // Keep the materialized aggregate on the movie in step with Ratings; lastRatedDate lets
+        // the catalog snapshot pick up the change. A pipeline update so avgRating, which sorting
+        // and the top-rated view read, is recomputed in the same atomic write.
+        List<Bson> aggregate = Arrays.asList(
+                new Document("$set", new Document("ratingSum", new Document("$add",
+                        Arrays.asList(new Document("$ifNull", Arrays.asList("$ratingSum", 0)), rating)))
+                        .append("ratingCount", new Document("$add",
+                                Arrays.asList(new Document("$ifNull", Arrays.asList("$ratingCount", 0)), 1)))
+                        .append("lastRatedDate", new Date())),
+                new Document("$set", new Document("avgRating",
+                        new Document("$divide", Arrays.asList("$ratingSum", "$ratingCount")))));
+        noteWrite(userId);
+
+        if (writeBehind != null) {
+            return writeBehind.enqueue("Ratings:" + userId + ":" + movieId, "Ratings",
+                    new UpdateOneModel<>(filter, update, new UpdateOptions().upsert(true)), () -> {
+                        writeBehind.enqueue(null, "Movies", new UpdateOneModel<>(eq("_id", movieId), aggregate), null);
+                        if (reviewWrite != null) {
+                            writeBehind.enqueue(null, ReviewDocuments.COLLECTION, reviewWrite, null);
+                        }
+                        addToModel(userId, movieId, rating);
+                        onRatingApplied.accept(movieId);
+                    });
+        }
+        if (!upsert(database.getCollection("Ratings"), filter, update)) {
+            return false;
+        }
+        movies().updateOne(eq("_id", movieId), aggregate);
+        if (reviewWrite != null) {
+            database.getCollection(ReviewDocuments.COLLECTION)
+                    .updateOne(reviewWrite.getFilter(), reviewWrite.getUpdate(), reviewWrite.getOptions());
+        }
+        addToModel(userId, movieId, rating);
+        return true;
+    }
+
+    private void addToModel(ObjectId userId, ObjectId movieId, int rating) {
+        ItemRecommender model = recommender;
+        if (model != null) {
+            model.addRating(userId, movieId, rating);
+        }
+    }
+
+    // Walks the movieId_1__id_-1 index; reads the page's documents only
+    @Override
+    public List<Review> reviews(ObjectId movieId, ObjectId before, int limit) {
+        List<Review> page = new ArrayList<>();
+        for (Document review : forReads(database.getCollection(ReviewDocuments.COLLECTION))
+                .find(ReviewDocuments.pageFilter(movieId, before))
+                .sort(Sorts.descending("_id"))
+                .limit(limit)) {
+            page.add(ReviewDocuments.review(review));
+        }
+        return page;
+    }
+
+    private boolean upsert(MongoCollection<Document> collection, Bson filter, Bson update) {
+        try {
+            return collection.updateOne(filter, update, new UpdateOptions().upsert(true))
+                    .getUpsertedId() != null;
+        } catch (MongoWriteException e) {
+            // Lost a race with another client inserting the same entry
+            if (e.getError().getCategory() == ErrorCategory.DUPLICATE_KEY) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    // userId is who the write is for, or null to take it from ReadContext
+    private void noteWrite(ObjectId userId) {
+        long now = System.currentTimeMillis();
+        lastWriteMillis = now;
+        ReadContext context = ReadContext.current();
+        ObjectId writer = userId != null ? userId : context == null ? null : context.userId();
+        if (writer == null || primaryAfterWriteMillis <= 0) {
+            return;
+        }
+        lastWriteByUser.put(writer, now);
+        if (lastWriteByUser.size() > 10_000) {
+            lastWriteByUser.values().removeIf(written -> now - written >= primaryAfterWriteMillis);
+        }
+    }
+
+    private MongoCollection<Document> forReads(MongoCollection<Document> collection) {
+        ReadContext context = ReadContext.current();
+        long lastWrite = context == null ? lastWriteMillis
+                : context.userId() == null ? 0 : lastWriteByUser.getOrDefault(context.userId(), 0L);
+        boolean recentWrite = System.currentTimeMillis() - lastWrite < primaryAfterWriteMillis;
+        return collection.withCodecRegistry(rowCodecs)
+                .withReadPreference(recentWrite ? ReadPreference.primary() : browseReadPreference);
+    }
+
+    private MongoCollection<Document> movies() {
+        return database.getCollection("Movies");
+    }
+}
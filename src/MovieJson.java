@@ -0,0 +1,151 @@
+package org.example;
+
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The JSON shapes the movie server and its client exchange. Documents are used as the JSON
+// tree; ids travel as hex strings and numbers as plain JSON numbers.
+final class MovieJson {
+    static final JsonWriterSettings SETTINGS = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    private MovieJson() {
+    }
+
+    static Document row(MovieRow movie) {
+        Document json = new Document("id", movie.id() == null ? null : movie.id().toHexString())
+                .append("title", movie.title())
+                .append("releaseDate", movie.releaseDate())
+                .append("genre", movie.genre())
+                .append("director", movie.director())
+                .append("ratingSum", movie.ratingSum())
+                .append("ratingCount", movie.ratingCount());
+        if (movie.userRating() != null) {
+            json.append("userRating", movie.userRating());
+        }
+        return json;
+    }
+
+    static MovieRow row(Document json) {
+        if (json == null) {
+            return null;
+        }
+        Number sum = json.get("ratingSum", Number.class);
+        Number count = json.get("ratingCount", Number.class);
+        Number userRating = json.get("userRating", Number.class);
+        return new MovieRow(id(json.getString("id")), json.getString("title"), json.getString("releaseDate"),
+                json.getString("genre"), json.getString("director"),
+                sum == null ? 0 : sum.longValue(), count == null ? 0 : count.intValue(),
+                userRating == null ? null : userRating.intValue());
+    }
+
+    static List<Document> rows(List<MovieRow> movies) {
+        List<Document> json = new ArrayList<>(movies.size());
+        for (MovieRow movie : movies) {
+            json.add(row(movie));
+        }
+        return json;
+    }
+
+    static List<MovieRow> rows(Document json, String key) {
+        List<MovieRow> movies = new ArrayList<>();
+        for (Document movie : json.getList(key, Document.class)) {
+            movies.add(row(movie));
+        }
+        return movies;
+    }
+
+    static Document filter(FacetFilter filter) {
+        return new Document("genre", filter.genre())
+                .append("director", filter.director())
+                .append("yearFrom", filter.yearFrom())
+                .append("yearTo", filter.yearTo());
+    }
+
+    static FacetFilter filter(Document json) {
+        if (json == null) {
+            return FacetFilter.NONE;
+        }
+        Number yearFrom = json.get("yearFrom", Number.class);
+        Number yearTo = json.get("yearTo", Number.class);
+        return new FacetFilter(json.getString("genre"), json.getString("director"),
+                yearFrom == null ? null : yearFrom.intValue(), yearTo == null ? null : yearTo.intValue());
+    }
+
+    static Document sort(MovieSort sort) {
+        return new Document("key", sort.key().name()).append("descending", sort.descending());
+    }
+
+    static MovieSort sort(Document json) {
+        if (json == null) {
+            return MovieSort.DEFAULT;
+        }
+        return new MovieSort(MovieSort.Key.valueOf(json.getString("key")), json.getBoolean("descending", false));
+    }
+
+    static Document facets(FacetCounts counts) {
+        return new Document("total", counts.total())
+                .append("genres", values(counts.genres()))
+                .append("directors", values(counts.directors()))
+                .append("years", values(counts.years()));
+    }
+
+    static FacetCounts facets(Document json) {
+        return new FacetCounts(json.get("total", Number.class).longValue(),
+                values(json, "genres"), values(json, "directors"), values(json, "years"));
+    }
+
+    private static List<Document> values(List<FacetCounts.Value> values) {
+        List<Document> json = new ArrayList<>(values.size());
+        for (FacetCounts.Value value : values) {
+            json.add(new Document("key", value.key()).append("label", value.label()).append("count", value.count()));
+        }
+        return json;
+    }
+
+    private static List<FacetCounts.Value> values(Document json, String key) {
+        List<FacetCounts.Value> values = new ArrayList<>();
+        for (Document value : json.getList(key, Document.class)) {
+            values.add(new FacetCounts.Value(value.getString("key"), value.getString("label"),
+                    value.get("count", Number.class).longValue()));
+        }
+        return values;
+    }
+
+    static Document reviews(List<Review> reviews) {
+        List<Document> json = new ArrayList<>(reviews.size());
+        for (Review review : reviews) {
+            json.add(new Document("id", review.id().toHexString())
+                    .append("movieId", review.movieId().toHexString())
+                    .append("userId", review.userId() == null ? null : review.userId().toHexString())
+                    .append("rating", review.rating())
+                    .append("text", review.text()));
+        }
+        return new Document("reviews", json);
+    }
+
+    static List<Review> reviews(Document json) {
+        List<Review> reviews = new ArrayList<>();
+        for (Document review : json.getList("reviews", Document.class)) {
+            reviews.add(new Review(id(review.getString("id")), id(review.getString("movieId")),
+                    id(review.getString("userId")), review.get("rating", Number.class).intValue(),
+                    review.getString("text")));
+        }
+        return reviews;
+    }
+
+    // Null for a missing id; anything else that isn't an id is the caller's mistake
+    static ObjectId id(String hex) {
+        if (hex == null) {
+            return null;
+        }
+        if (!ObjectId.isValid(hex)) {
+            throw new IllegalArgumentException("Not a valid id: " + hex);
+        }
+        return new ObjectId(hex);
+    }
+}
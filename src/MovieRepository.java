@@ -0,0 +1,93 @@
+package org.example;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+// Everything the browser reads and writes about movies, watchlists and ratings. Movie documents
+// carry _id, title, releaseDate, genre, director, ratingSum and ratingCount; reads hand back
+// just the fields the views show, as MovieRows.
+public interface MovieRepository {
+    // Movies matching the facet filter (FacetFilter.NONE for the whole catalog)
+    long countMovies(FacetFilter filter);
+
+    // Browsing the filtered catalog in the given order, starting after the given row (null for
+    // the beginning)
+    List<MovieRow> moviesAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit);
+
+    // Same rows as moviesAfter, but only filled in enough to continue paging from
+    List<MovieRow> movieKeysAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit);
+
+    // Sort keys of the row at the given position in the filtered order, or null past the end;
+    // for jumping far ahead without paging through everything before it
+    default MovieRow movieKeyAt(MovieSort sort, FacetFilter filter, long offset) {
+        MovieRow after = null;
+        for (long remaining = offset + 1; remaining > 0; ) {
+            int chunk = (int) Math.min(remaining, 10_000);
+            List<MovieRow> keys = movieKeysAfter(sort, filter, after, chunk);
+            if (keys.size() < chunk) {
+                return null;
+            }
+            after = keys.get(chunk - 1);
+            remaining -= chunk;
+        }
+        return after;
+    }
+
+    // Match count and genre/director/year breakdown of the filtered catalog
+    FacetCounts facets(FacetFilter filter);
+
+    // False while search is served by a slower fallback whose results shouldn't be cached
+    boolean isSearchIndexed();
+
+    // Matches on title, director and genre, best match first
+    void search(String term, int limit, Consumer<MovieRow> sink);
+
+    double averageRating(ObjectId movieId);
+
+    // Best average first among movies with at least minVotes ratings; genre null for all genres
+    void topRated(String genre, int minVotes, int limit, Consumer<MovieRow> sink);
+
+    List<String> genres();
+
+    void watchlist(ObjectId userId, Consumer<MovieRow> sink);
+
+    // Rows with the user's own score set as userRating
+    void ratedMovies(ObjectId userId, Consumer<MovieRow> sink);
+
+    // Fills the session's view of the user's watchlist and ratings
+    default void loadUserState(ObjectId userId, UserState state) {
+        watchlist(userId, state::addWatchlisted);
+        ratedMovies(userId, state::addRated);
+    }
+
+    // Movies the user hasn't rated that people with similar taste liked, best first
+    void recommended(ObjectId userId, int limit, Consumer<MovieRow> sink);
+
+    // Sets the movie's _id and returns it
+    ObjectId addMovie(Document movie);
+
+    // True if the entry is new, false if the user already had it
+    boolean addToWatchlist(ObjectId userId, ObjectId movieId);
+
+    // True if the rating is new, false if the user had already rated the movie. A non-blank
+    // review is kept apart from the rating and shows up in the movie's review feed
+    boolean addRating(ObjectId userId, ObjectId movieId, int rating, String review);
+
+    // A page of the movie's review feed, newest first, continuing after the given review id
+    // (null for the newest)
+    List<Review> reviews(ObjectId movieId, ObjectId before, int limit);
+
+    // Average rounded to one decimal, from the aggregate fields on a movie document
+    static double average(Document movie) {
+        Number sum = movie.get("ratingSum", Number.class);
+        Number count = movie.get("ratingCount", Number.class);
+        return sum == null || count == null ? 0.0 : average(sum.longValue(), count.longValue());
+    }
+
+    static double average(long sum, long count) {
+        return count == 0 ? 0.0 : Math.round((double) sum / count * 10.0) / 10.0;
+    }
+}
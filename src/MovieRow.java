@@ -0,0 +1,29 @@
+package org.example;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+// One movie as the browser's tables show it: only the fields the views need, with _id kept as
+// an ObjectId. userRating is the viewing user's own score in the rated view, null elsewhere.
+public record MovieRow(ObjectId id, String title, String releaseDate, String genre, String director,
+                       long ratingSum, int ratingCount, Integer userRating) {
+
+    public double averageRating() {
+        return MovieRepository.average(ratingSum, ratingCount);
+    }
+
+    public MovieRow withUserRating(Integer rating) {
+        return new MovieRow(id, title, releaseDate, genre, director, ratingSum, ratingCount, rating);
+    }
+
+    public static MovieRow of(Document movie) {
+        Number sum = movie.get("ratingSum", Number.class);
+        Number count = movie.get("ratingCount", Number.class);
+        Object releaseDate = movie.containsKey("releaseDate") ? movie.get("releaseDate") : movie.get("releaseDateText");
+        return new MovieRow(movie.getObjectId("_id"), movie.getString("title"),
+                releaseDate == null ? null : ReleaseDates.text(releaseDate),
+                movie.getString("genre"), movie.getString("director"),
+                sum == null ? 0 : sum.longValue(), count == null ? 0 : count.intValue(),
+                movie.getInteger("userRating"));
+    }
+}
@@ -0,0 +1,130 @@
+package org.example;
+
+import com.mongodb.client.model.Projections;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.time.LocalDate;
+import java.util.Date;
+
+// Decodes movie documents straight from the wire into MovieRows, without building a Document
+// first. Fields the row doesn't hold are skipped unread.
+public class MovieRowCodec implements Codec<MovieRow> {
+    // Server-side projection matching what decode reads
+    public static final Bson FIELDS = Projections.include(
+            "_id", "title", "releaseDate", "releaseDateText", "genre", "director", "ratingSum", "ratingCount");
+
+    @Override
+    public MovieRow decode(BsonReader reader, DecoderContext decoderContext) {
+        ObjectId id = null;
+        String title = null;
+        String releaseDate = null;
+        String releaseDateText = null;
+        String genre = null;
+        String director = null;
+        long ratingSum = 0;
+        int ratingCount = 0;
+        Integer userRating = null;
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "_id":
+                    id = reader.getCurrentBsonType() == BsonType.OBJECT_ID ? reader.readObjectId() : skip(reader, null);
+                    break;
+                case "title":
+                    title = readString(reader);
+                    break;
+                // A date once migrated; text that couldn't be parsed as one is kept aside
+                case "releaseDate":
+                    releaseDate = reader.getCurrentBsonType() == BsonType.DATE_TIME
+                            ? ReleaseDates.text(new Date(reader.readDateTime())) : readString(reader);
+                    break;
+                case "releaseDateText":
+                    releaseDateText = readString(reader);
+                    break;
+                case "genre":
+                    genre = readString(reader);
+                    break;
+                case "director":
+                    director = readString(reader);
+                    break;
+                case "ratingSum":
+                    ratingSum = readLong(reader);
+                    break;
+                case "ratingCount":
+                    ratingCount = (int) readLong(reader);
+                    break;
+                case "userRating":
+                    userRating = reader.getCurrentBsonType() == BsonType.NULL ? skip(reader, null) : (int) readLong(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+        return new MovieRow(id, title, releaseDate != null ? releaseDate : releaseDateText, genre, director, ratingSum, ratingCount, userRating);
+    }
+
+    private static String readString(BsonReader reader) {
+        return reader.getCurrentBsonType() == BsonType.STRING ? reader.readString() : skip(reader, null);
+    }
+
+    private static long readLong(BsonReader reader) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                return reader.readInt32();
+            case INT64:
+                return reader.readInt64();
+            case DOUBLE:
+                return (long) reader.readDouble();
+            default:
+                return skip(reader, 0L);
+        }
+    }
+
+    private static <T> T skip(BsonReader reader, T value) {
+        reader.skipValue();
+        return value;
+    }
+
+    @Override
+    public void encode(BsonWriter writer, MovieRow row, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        if (row.id() != null) {
+            writer.writeObjectId("_id", row.id());
+        }
+        writeString(writer, "title", row.title());
+        LocalDate releaseDate = ReleaseDates.parse(row.releaseDate());
+        if (releaseDate != null) {
+            writer.writeDateTime("releaseDate", ReleaseDates.toDate(releaseDate).getTime());
+        } else {
+            writeString(writer, "releaseDateText", row.releaseDate());
+        }
+        writeString(writer, "genre", row.genre());
+        writeString(writer, "director", row.director());
+        writer.writeInt64("ratingSum", row.ratingSum());
+        writer.writeInt32("ratingCount", row.ratingCount());
+        if (row.userRating() != null) {
+            writer.writeInt32("userRating", row.userRating());
+        }
+        writer.writeEndDocument();
+    }
+
+    private static void writeString(BsonWriter writer, String name, String value) {
+        if (value != null) {
+            writer.writeString(name, value);
+        }
+    }
+
+    @Override
+    public Class<MovieRow> getEncoderClass() {
+        return MovieRow.class;
+    }
+}
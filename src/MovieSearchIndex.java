@@ -0,0 +1,260 @@
+package org.example;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Projections;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// In-process inverted index over movie title, director and genre. Query terms match indexed
+// tokens exactly, by prefix, or fuzzily through a trigram index over the vocabulary, and hits
+// are ranked by how well and in which field they matched.
+public class MovieSearchIndex {
+    private static final int TITLE = 1;
+    private static final int DIRECTOR = 2;
+    private static final int GENRE = 4;
+    private static final int MAX_PREFIX_EXPANSION = 200;
+    private static final int MAX_FUZZY_CANDIDATES = 50;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<ObjectId> movieIds = new ArrayList<>();
+    private final Map<ObjectId, Integer> docIds = new HashMap<>();
+    private final List<String> titles = new ArrayList<>();
+    // Sorted so prefix lookups are a range scan
+    private final TreeMap<String, Integer> tokenIds = new TreeMap<>();
+    private final List<String> tokens = new ArrayList<>();
+    // Per token: doc << 3 | field mask
+    private final List<IntList> postings = new ArrayList<>();
+    // Per trigram: token ids containing it
+    private final Map<String, IntList> trigrams = new HashMap<>();
+    private volatile boolean ready;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    // Loads every movie; searches fall back to Mongo until this finishes
+    public void build(MongoCollection<Document> movies) {
+        try (MongoCursor<Document> cursor = movies.find()
+                .projection(Projections.include("title", "director", "genre"))
+                .batchSize(5000)
+                .iterator()) {
+            while (cursor.hasNext()) {
+                add(cursor.next());
+            }
+        }
+        ready = true;
+    }
+
+    // For callers that feed the index themselves instead of calling build
+    public void markReady() {
+        ready = true;
+    }
+
+    public void add(Document movie) {
+        add(movie.getObjectId("_id"), movie.getString("title"),
+                movie.getString("director"), movie.getString("genre"));
+    }
+
+    public void add(ObjectId id, String title, String director, String genre) {
+        lock.writeLock().lock();
+        try {
+            if (docIds.containsKey(id)) {
+                return;
+            }
+            int doc = movieIds.size();
+            docIds.put(id, doc);
+            movieIds.add(id);
+            titles.add(title == null ? "" : title);
+
+            Map<String, Integer> fields = new HashMap<>();
+            for (String token : tokenize(title)) {
+                fields.merge(token, TITLE, (a, b) -> a | b);
+            }
+            for (String token : tokenize(director)) {
+                fields.merge(token, DIRECTOR, (a, b) -> a | b);
+            }
+            for (String token : tokenize(genre)) {
+                fields.merge(token, GENRE, (a, b) -> a | b);
+            }
+            for (Map.Entry<String, Integer> field : fields.entrySet()) {
+                postings.get(tokenId(field.getKey())).add(doc << 3 | field.getValue());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Every query term has to match some field; results come back best match first
+    public List<ObjectId> search(String query, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        lock.readLock().lock();
+        try {
+            Map<Integer, Double> scores = null;
+            for (String term : terms) {
+                Map<Integer, Double> termScores = new HashMap<>();
+                for (Map.Entry<Integer, Double> match : matchingTokens(term).entrySet()) {
+                    IntList docs = postings.get(match.getKey());
+                    for (int i = 0; i < docs.size(); i++) {
+                        int entry = docs.get(i);
+                        double score = match.getValue() * fieldWeight(entry & 7);
+                        termScores.merge(entry >>> 3, score, Math::max);
+                    }
+                }
+                if (scores == null) {
+                    scores = termScores;
+                } else {
+                    Map<Integer, Double> combined = new HashMap<>();
+                    for (Map.Entry<Integer, Double> hit : scores.entrySet()) {
+                        Double termScore = termScores.get(hit.getKey());
+                        if (termScore != null) {
+                            combined.put(hit.getKey(), hit.getValue() + termScore);
+                        }
+                    }
+                    scores = combined;
+                }
+                if (scores.isEmpty()) {
+                    return Collections.emptyList();
+                }
+            }
+
+            List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(scores.entrySet());
+            ranked.sort((a, b) -> {
+                int byScore = Double.compare(b.getValue(), a.getValue());
+                return byScore != 0 ? byScore
+                        : titles.get(a.getKey()).compareToIgnoreCase(titles.get(b.getKey()));
+            });
+            List<ObjectId> result = new ArrayList<>(Math.min(limit, ranked.size()));
+            for (int i = 0; i < ranked.size() && i < limit; i++) {
+                result.add(movieIds.get(ranked.get(i).getKey()));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Token id -> match quality for one query term
+    private Map<Integer, Double> matchingTokens(String term) {
+        Map<Integer, Double> matches = new HashMap<>();
+        int expanded = 0;
+        for (Map.Entry<String, Integer> token
+                : tokenIds.subMap(term, true, term + Character.MAX_VALUE, false).entrySet()) {
+            matches.put(token.getValue(), token.getKey().equals(term) ? 1.0 : 0.7);
+            if (++expanded >= MAX_PREFIX_EXPANSION) {
+                break;
+            }
+        }
+        if (term.length() >= 4) {
+            addFuzzyMatches(term, matches);
+        }
+        return matches;
+    }
+
+    private void addFuzzyMatches(String term, Map<Integer, Double> matches) {
+        List<String> termGrams = trigramsOf(term);
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (String gram : termGrams) {
+            IntList tokenList = trigrams.get(gram);
+            if (tokenList != null) {
+                for (int i = 0; i < tokenList.size(); i++) {
+                    shared.merge(tokenList.get(i), 1, Integer::sum);
+                }
+            }
+        }
+        int maxDistance = term.length() <= 5 ? 1 : 2;
+        shared.entrySet().stream()
+                .filter(e -> e.getValue() * 2 >= termGrams.size())
+                .sorted((a, b) -> b.getValue() - a.getValue())
+                .limit(MAX_FUZZY_CANDIDATES)
+                .forEach(e -> {
+                    String candidate = tokens.get(e.getKey());
+                    if (editDistance(term, candidate, maxDistance) <= maxDistance) {
+                        matches.putIfAbsent(e.getKey(), 0.4);
+                    }
+                });
+    }
+
+    private int tokenId(String token) {
+        Integer id = tokenIds.get(token);
+        if (id == null) {
+            id = tokens.size();
+            tokenIds.put(token, id);
+            tokens.add(token);
+            postings.add(new IntList());
+            for (String gram : trigramsOf(token)) {
+                trigrams.computeIfAbsent(gram, g -> new IntList()).add(id);
+            }
+        }
+        return id;
+    }
+
+    private static double fieldWeight(int mask) {
+        if ((mask & TITLE) != 0) {
+            return 3.0;
+        }
+        return (mask & DIRECTOR) != 0 ? 2.0 : 1.0;
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> result = new ArrayList<>();
+        if (text == null) {
+            return result;
+        }
+        String normalized = Normalizer.normalize(text, Normalizer.Form.NFD)
+                .replaceAll("\\p{M}", "")
+                .toLowerCase(Locale.ROOT);
+        for (String token : normalized.split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    private static List<String> trigramsOf(String token) {
+        String padded = "$" + token + "$";
+        List<String> grams = new ArrayList<>();
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    // Levenshtein distance, giving up as soon as it exceeds max
+    private static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,408 @@
+package org.example;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoDatabase;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.bson.Document;
+import org.bson.json.JsonParseException;
+import org.bson.types.ObjectId;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+// Headless mode: serves the browser's reads and writes over HTTP/JSON, so any number of desktop
+// clients (see HttpMovieRepository) share one connection pool, one search index, one
+// recommender and one set of caches instead of each opening its own MongoClient.
+//
+// Every call is POST /api/<name> with a JSON object body and answers with a JSON object;
+// GET /api/health and GET /api/metrics are there for load balancers and operators. Calls about
+// the user carry "Authorization: Bearer <token>" from login. Each request runs on its own
+// virtual thread where the JVM has them (21+), so thousands of concurrent users mostly cost
+// waiting threads; older JVMs get a fixed pool of server.threads platform threads.
+//
+// Configured like the desktop browser (MongoConfig), plus server.port (8080), server.backlog
+// (1024), server.threads (200) and server.sessionTtlMinutes (720). The Mongo pool is shared by
+// every request, so size mongo.pool.maxSize for the server's load, not a single user's.
+public class MovieServer {
+    private static final int MAX_BODY_BYTES = 1 << 20;
+    private static final int MAX_LIMIT = 1000;
+
+    // userId is null for calls that don't need a login
+    private interface Endpoint {
+        Document call(Document request, ObjectId userId) throws Exception;
+    }
+
+    private static final class Session {
+        final ObjectId userId;
+        volatile long lastUsed;
+
+        Session(ObjectId userId) {
+            this.userId = userId;
+            this.lastUsed = System.currentTimeMillis();
+        }
+    }
+
+    private static final class ApiException extends RuntimeException {
+        final int status;
+
+        ApiException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private final MovieRepository repository;
+    private final UserAccounts accounts;
+    private final OperationMetrics metrics;
+    private final long sessionTtlMillis;
+    private final Map<String, Endpoint> publicEndpoints = new HashMap<>();
+    private final Map<String, Endpoint> userEndpoints = new HashMap<>();
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private HttpServer server;
+    private ExecutorService requests;
+    private ScheduledExecutorService sweeper;
+
+    public MovieServer(MovieRepository repository, UserAccounts accounts, OperationMetrics metrics,
+                       long sessionTtlMillis) {
+        this.repository = repository;
+        this.accounts = accounts;
+        this.metrics = metrics;
+        this.sessionTtlMillis = sessionTtlMillis;
+
+        publicEndpoints.put("login", this::login);
+        publicEndpoints.put("signup", this::signup);
+        publicEndpoints.put("logout", this::logout);
+        publicEndpoints.put("count", (request, userId) -> new Document("count",
+                repository.countMovies(filter(request))));
+        publicEndpoints.put("moviesAfter", (request, userId) -> new Document("movies", MovieJson.rows(
+                repository.moviesAfter(sort(request), filter(request), after(request), limit(request)))));
+        publicEndpoints.put("movieKeysAfter", (request, userId) -> new Document("movies", MovieJson.rows(
+                repository.movieKeysAfter(sort(request), filter(request), after(request), limit(request)))));
+        publicEndpoints.put("movieKeyAt", (request, userId) -> {
+            MovieRow movie = repository.movieKeyAt(sort(request), filter(request),
+                    request.get("offset", Number.class).longValue());
+            return new Document("movie", movie == null ? null : MovieJson.row(movie));
+        });
+        publicEndpoints.put("facets", (request, userId) -> MovieJson.facets(repository.facets(filter(request))));
+        publicEndpoints.put("searchIndexed", (request, userId) -> new Document("indexed",
+                repository.isSearchIndexed()));
+        publicEndpoints.put("search", (request, userId) -> movies(sink ->
+                repository.search(required(request, "term"), limit(request), sink)));
+        publicEndpoints.put("averageRating", (request, userId) -> new Document("average",
+                repository.averageRating(MovieJson.id(required(request, "movieId")))));
+        publicEndpoints.put("topRated", (request, userId) -> movies(sink ->
+                repository.topRated(request.getString("genre"), request.get("minVotes", Number.class) == null
+                        ? 1 : request.get("minVotes", Number.class).intValue(), limit(request), sink)));
+        publicEndpoints.put("genres", (request, userId) -> new Document("genres", repository.genres()));
+        publicEndpoints.put("reviews", (request, userId) -> MovieJson.reviews(repository.reviews(
+                MovieJson.id(required(request, "movieId")), MovieJson.id(request.getString("before")),
+                limit(request))));
+
+        userEndpoints.put("watchlist", (request, userId) -> movies(sink -> repository.watchlist(userId, sink)));
+        userEndpoints.put("ratedMovies", (request, userId) -> movies(sink -> repository.ratedMovies(userId, sink)));
+        userEndpoints.put("userState", (request, userId) -> userState(state ->
+                repository.loadUserState(userId, state)));
+        userEndpoints.put("recommended", (request, userId) -> movies(sink ->
+                repository.recommended(userId, limit(request), sink)));
+        userEndpoints.put("addMovie", this::addMovie);
+        userEndpoints.put("addToWatchlist", (request, userId) -> new Document("added",
+                repository.addToWatchlist(userId, MovieJson.id(required(request, "movieId")))));
+        userEndpoints.put("addRating", this::addRating);
+    }
+
+    public static void main(String[] args) throws Exception {
+        MongoConfig config = MongoConfig.load();
+        OperationMetrics metrics = new OperationMetrics();
+        MongoClient mongoClient = MongoClients.create(config.clientSettings().addCommandListener(metrics).build());
+        MongoDatabase database = mongoClient.getDatabase(config.databaseName());
+        SchemaBootstrap.start(database).join();
+
+        SearchResultCache searchCache = new SearchResultCache(
+                Integer.parseInt(config.get("server.searchCache.size", "10000")),
+                Integer.parseInt(config.get("server.searchCache.ttlSeconds", "300")) * 1000L);
+        MongoMovieRepository mongoRepository = new MongoMovieRepository(database,
+                Boolean.getBoolean("moviebrowser.writeBehind"), searchCache::invalidateMovie,
+                config.browseReadPreference(), config.primaryAfterWriteMillis());
+        mongoRepository.startSearchIndexBuild(null);
+        mongoRepository.startRecommenderBuild();
+
+        MovieServer server = new MovieServer(new CachedMovieRepository(mongoRepository, searchCache),
+                mongoRepository, metrics,
+                TimeUnit.MINUTES.toMillis(Long.parseLong(config.get("server.sessionTtlMinutes", "720"))));
+        int port = Integer.parseInt(config.get("server.port", "8080"));
+        server.start(port, Integer.parseInt(config.get("server.backlog", "1024")),
+                Integer.parseInt(config.get("server.threads", "200")));
+        System.out.println("Movie server listening on port " + port);
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            mongoRepository.close();
+            mongoClient.close();
+        }, "movie-server-shutdown"));
+    }
+
+    public void start(int port, int backlog, int platformThreads) throws IOException {
+        requests = requestExecutor(platformThreads);
+        server = HttpServer.create(new InetSocketAddress(port), backlog);
+        server.createContext("/api/", this::handle);
+        server.setExecutor(requests);
+        server.start();
+
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-sweeper");
+            t.setDaemon(true);
+            return t;
+        });
+        sweeper.scheduleAtFixedRate(() -> sessions.values().removeIf(this::expired), 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void stop() {
+        server.stop(1);
+        requests.shutdown();
+        sweeper.shutdownNow();
+    }
+
+    // One virtual thread per request on Java 21+; looked up reflectively so the code still
+    // builds and runs on 17, where it falls back to platform threads
+    private static ExecutorService requestExecutor(int platformThreads) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            System.out.println("Virtual threads unavailable; serving with " + platformThreads + " threads");
+            return Executors.newFixedThreadPool(platformThreads, r -> {
+                Thread t = new Thread(r, "movie-server-request");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        String name = exchange.getRequestURI().getPath().substring("/api/".length());
+        int status = 200;
+        Document response;
+        try {
+            if (exchange.getRequestMethod().equals("GET") && name.equals("health")) {
+                response = new Document("status", "ok").append("searchIndexed", repository.isSearchIndexed())
+                        .append("sessions", sessions.size());
+            } else if (exchange.getRequestMethod().equals("GET") && name.equals("metrics")) {
+                response = metrics.toDocument();
+            } else {
+                response = call(name, exchange);
+            }
+        } catch (ApiException e) {
+            status = e.status;
+            response = new Document("error", e.getMessage());
+        } catch (IllegalArgumentException | JsonParseException | ClassCastException e) {
+            status = 400;
+            response = new Document("error", e.getMessage());
+        } catch (UnsupportedOperationException e) {
+            status = 503;
+            response = new Document("error", e.getMessage());
+        } catch (Exception e) {
+            e.printStackTrace();
+            status = 500;
+            response = new Document("error", "Internal error: " + e.getMessage());
+        }
+
+        byte[] body = response.toJson(MovieJson.SETTINGS).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private Document call(String name, HttpExchange exchange) throws Exception {
+        Endpoint endpoint = publicEndpoints.get(name);
+        boolean needsUser = endpoint == null;
+        if (needsUser) {
+            endpoint = userEndpoints.get(name);
+        }
+        if (endpoint == null) {
+            throw new ApiException(404, "No such call: " + name);
+        }
+        if (!exchange.getRequestMethod().equals("POST")) {
+            throw new ApiException(405, "Use POST");
+        }
+        Document request = readBody(exchange);
+        ObjectId userId = needsUser ? user(exchange) : null;
+        // Public calls from a logged-in client are still that user's reads, so they see the
+        // user's own writes (see ReadContext)
+        ObjectId caller = needsUser ? userId : sessionUser(exchange);
+        Endpoint chosen = endpoint;
+        // Timed per call, so the server's Diagnostics export breaks latency down like the desktop's
+        return metrics.time("api-" + name, () -> ReadContext.callAs(caller, () -> chosen.call(request, userId)));
+    }
+
+    private static Document readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+                if (body.size() > MAX_BODY_BYTES) {
+                    throw new ApiException(413, "Request body over " + MAX_BODY_BYTES + " bytes");
+                }
+            }
+            String json = body.toString(StandardCharsets.UTF_8).trim();
+            return json.isEmpty() ? new Document() : Document.parse(json);
+        }
+    }
+
+    private ObjectId user(HttpExchange exchange) {
+        ObjectId userId = sessionUser(exchange);
+        if (userId == null) {
+            throw new ApiException(401, "Log in first");
+        }
+        return userId;
+    }
+
+    // The caller's user, or null without a live session
+    private ObjectId sessionUser(HttpExchange exchange) {
+        String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+        Session session = authorization == null || !authorization.startsWith("Bearer ")
+                ? null : sessions.get(authorization.substring("Bearer ".length()).trim());
+        if (session == null || expired(session)) {
+            return null;
+        }
+        session.lastUsed = System.currentTimeMillis();
+        return session.userId;
+    }
+
+    private boolean expired(Session session) {
+        return System.currentTimeMillis() - session.lastUsed > sessionTtlMillis;
+    }
+
+    // The user's watchlist and ratings come back with the token, as the desktop login loads them
+    private Document login(Document request, ObjectId userId) {
+        Document[] state = new Document[1];
+        ObjectId loggedIn = accounts.login(required(request, "username"), required(request, "password"),
+                collector(loaded -> state[0] = loaded));
+        if (loggedIn == null) {
+            throw new ApiException(401, "Invalid username or password");
+        }
+        byte[] bytes = new byte[24];
+        random.nextBytes(bytes);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+        sessions.put(token, new Session(loggedIn));
+        return state[0].append("token", token).append("userId", loggedIn.toHexString());
+    }
+
+    private Document signup(Document request, ObjectId userId) {
+        ObjectId created = accounts.signup(required(request, "username"), required(request, "password"),
+                required(request, "email"));
+        return new Document("created", created != null)
+                .append("userId", created == null ? null : created.toHexString());
+    }
+
+    private Document logout(Document request, ObjectId userId) {
+        String token = request.getString("token");
+        return new Document("loggedOut", token != null && sessions.remove(token) != null);
+    }
+
+    // Same checks and shape as the Add Movie dialog
+    private Document addMovie(Document request, ObjectId userId) {
+        Document json = request.get("movie", Document.class);
+        if (json == null || json.getString("title") == null || json.getString("title").isBlank()) {
+            throw new IllegalArgumentException("A movie needs a title");
+        }
+        String releaseDateText = json.getString("releaseDate");
+        LocalDate releaseDate = ReleaseDates.parse(releaseDateText);
+        if (releaseDateText != null && !releaseDateText.isBlank() && releaseDate == null) {
+            throw new IllegalArgumentException("Not a release date: " + releaseDateText);
+        }
+        Document movie = new Document("title", json.getString("title"));
+        if (releaseDate != null) {
+            movie.append("releaseDate", ReleaseDates.toDate(releaseDate)).append("year", releaseDate.getYear());
+        }
+        movie.append("genre", Objects.toString(json.getString("genre"), ""))
+                .append("director", Objects.toString(json.getString("director"), ""))
+                .append("addedDate", new Date())
+                .append("ratingSum", 0)
+                .append("ratingCount", 0)
+                .append("avgRating", 0.0);
+        return new Document("id", repository.addMovie(movie).toHexString());
+    }
+
+    private Document addRating(Document request, ObjectId userId) {
+        int rating = request.get("rating", Number.class) == null ? 0 : request.get("rating", Number.class).intValue();
+        if (rating < 1 || rating > 10) {
+            throw new IllegalArgumentException("Ratings go from 1 to 10");
+        }
+        return new Document("inserted", repository.addRating(userId, MovieJson.id(required(request, "movieId")),
+                rating, Objects.toString(request.getString("review"), "")));
+    }
+
+    private interface Source {
+        void feed(Consumer<MovieRow> sink) throws Exception;
+    }
+
+    private static Document movies(Source source) throws Exception {
+        List<Document> movies = new ArrayList<>();
+        source.feed(movie -> movies.add(MovieJson.row(movie)));
+        return new Document("movies", movies);
+    }
+
+    private static Document userState(Consumer<UserState> load) {
+        Document[] state = new Document[1];
+        load.accept(collector(loaded -> state[0] = loaded));
+        return state[0];
+    }
+
+    // A UserState that just collects the rows it is given, for sending them on as JSON
+    private static UserState collector(Consumer<Document> loaded) {
+        List<Document> watchlist = new ArrayList<>();
+        List<Document> rated = new ArrayList<>();
+        loaded.accept(new Document("watchlist", watchlist).append("rated", rated));
+        return new UserState(movie -> null) {
+            @Override
+            public void addWatchlisted(MovieRow movie) {
+                watchlist.add(MovieJson.row(movie));
+            }
+
+            @Override
+            public void addRated(MovieRow movie) {
+                rated.add(MovieJson.row(movie));
+            }
+        };
+    }
+
+    private static FacetFilter filter(Document request) {
+        return MovieJson.filter(request.get("filter", Document.class));
+    }
+
+    private static MovieSort sort(Document request) {
+        return MovieJson.sort(request.get("sort", Document.class));
+    }
+
+    private static MovieRow after(Document request) {
+        return MovieJson.row(request.get("after", Document.class));
+    }
+
+    private static int limit(Document request) {
+        Number limit = request.get("limit", Number.class);
+        return limit == null ? PagedMovieTableModel.PAGE_SIZE : Math.max(1, Math.min(limit.intValue(), MAX_LIMIT));
+    }
+
+    private static String required(Document request, String key) {
+        String value = request.getString(key);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + key);
+        }
+        return value;
+    }
+}
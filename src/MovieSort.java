@@ -0,0 +1,47 @@
+package org.example;
+
+import java.util.Comparator;
+
+// Order for browsing the catalog: one of the table's columns, ties broken by _id so every row
+// has a unique position and pages can continue from the last row seen.
+public record MovieSort(Key key, boolean descending) {
+    public static final MovieSort DEFAULT = new MovieSort(Key.ID, false);
+
+    // In table column order; RATING sorts on the materialized avgRating field
+    public enum Key {
+        ID("_id"), TITLE("title"), RELEASE_DATE("releaseDate"), GENRE("genre"), DIRECTOR("director"), RATING("avgRating");
+
+        public final String field;
+
+        Key(String field) {
+            this.field = field;
+        }
+    }
+
+    // The row's value for the sort field, matching what Mongo stores for it
+    public Comparable<?> value(MovieRow row) {
+        switch (key) {
+            case TITLE:
+                return row.title();
+            case RELEASE_DATE:
+                return row.releaseDate();
+            case GENRE:
+                return row.genre();
+            case DIRECTOR:
+                return row.director();
+            case RATING:
+                return row.ratingCount() == 0 ? 0.0 : (double) row.ratingSum() / row.ratingCount();
+            default:
+                return row.id();
+        }
+    }
+
+    // Missing values first, as Mongo sorts them
+    @SuppressWarnings("unchecked")
+    public Comparator<MovieRow> comparator() {
+        Comparator<MovieRow> ascending = Comparator
+                .comparing((MovieRow row) -> (Comparable<Object>) value(row), Comparator.nullsFirst(Comparator.naturalOrder()))
+                .thenComparing(MovieRow::id);
+        return descending ? ascending.reversed() : ascending;
+    }
+}
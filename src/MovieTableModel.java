@@ -0,0 +1,106 @@
+package org.example;
+
+import org.bson.types.ObjectId;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Table model for the fully loaded views (search results, watchlist, rated, recommended, top
+// rated). Rows arrive in batches with one insert event per batch, and a write patches the one
+// row it touched instead of reloading the view. Column 0 holds the movie's ObjectId.
+public class MovieTableModel extends AbstractTableModel {
+    private final String[] columns;
+    private final List<Object[]> rows = new ArrayList<>();
+
+    public MovieTableModel(String[] columns) {
+        this.columns = columns;
+    }
+
+    public void clear() {
+        if (!rows.isEmpty()) {
+            int last = rows.size() - 1;
+            rows.clear();
+            fireTableRowsDeleted(0, last);
+        }
+    }
+
+    public void addRows(List<Object[]> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        int first = rows.size();
+        rows.addAll(batch);
+        fireTableRowsInserted(first, rows.size() - 1);
+    }
+
+    public void insertRow(int index, Object[] row) {
+        rows.add(index, row);
+        fireTableRowsInserted(index, index);
+    }
+
+    public void removeRow(int index) {
+        rows.remove(index);
+        fireTableRowsDeleted(index, index);
+    }
+
+    // The views hold at most a few thousand rows, so a scan is cheaper than keeping an index
+    // current across inserts
+    public int indexOf(ObjectId movieId) {
+        for (int i = 0; i < rows.size(); i++) {
+            if (movieId.equals(rows.get(i)[0])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public Object[] row(int index) {
+        return rows.get(index);
+    }
+
+    // Sets one column of the movie's row, if it is shown, and repaints just that row so the
+    // title markers follow too
+    public boolean updateValue(ObjectId movieId, int column, Object value) {
+        int index = indexOf(movieId);
+        if (index < 0) {
+            return false;
+        }
+        rows.get(index)[column] = value;
+        fireTableRowsUpdated(index, index);
+        return true;
+    }
+
+    // For changes the renderer shows without the row's values changing, like the watchlist star
+    public void rowChanged(ObjectId movieId) {
+        int index = indexOf(movieId);
+        if (index >= 0) {
+            fireTableRowsUpdated(index, index);
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return columns[column];
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        return rows.get(rowIndex)[columnIndex];
+    }
+}
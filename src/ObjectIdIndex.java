@@ -0,0 +1,79 @@
+package org.example;
+
+import org.bson.types.ObjectId;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// Assigns dense int ids to ObjectIds. Each ObjectId is kept as three ints in flat arrays rather
+// than as an object, so millions of ids cost 12 bytes each plus the hash table.
+public final class ObjectIdIndex {
+    private int[] ids = new int[48];
+    private int[] table = new int[32];
+    private int size;
+
+    public ObjectIdIndex() {
+        Arrays.fill(table, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Dense id for the ObjectId, or -1 if it has none yet
+    public int find(ObjectId id) {
+        int[] parts = parts(id);
+        return table[slot(parts[0], parts[1], parts[2])];
+    }
+
+    public int getOrAdd(ObjectId id) {
+        int[] parts = parts(id);
+        int slot = slot(parts[0], parts[1], parts[2]);
+        if (table[slot] != -1) {
+            return table[slot];
+        }
+        if ((size + 1) * 3 > ids.length) {
+            ids = Arrays.copyOf(ids, ids.length * 2);
+        }
+        ids[size * 3] = parts[0];
+        ids[size * 3 + 1] = parts[1];
+        ids[size * 3 + 2] = parts[2];
+        table[slot] = size;
+        size++;
+        if (size * 2 > table.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    public ObjectId get(int dense) {
+        return new ObjectId(ByteBuffer.allocate(12)
+                .putInt(ids[dense * 3]).putInt(ids[dense * 3 + 1]).putInt(ids[dense * 3 + 2]).array());
+    }
+
+    private int slot(int a, int b, int c) {
+        int mask = table.length - 1;
+        int slot = (((a * 31) + b) * 31 + c) * 0x9E3779B9 >>> 1 & mask;
+        while (table[slot] != -1) {
+            int dense = table[slot];
+            if (ids[dense * 3] == a && ids[dense * 3 + 1] == b && ids[dense * 3 + 2] == c) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        Arrays.fill(table, -1);
+        for (int dense = 0; dense < size; dense++) {
+            table[slot(ids[dense * 3], ids[dense * 3 + 1], ids[dense * 3 + 2])] = dense;
+        }
+    }
+
+    private static int[] parts(ObjectId id) {
+        ByteBuffer bytes = ByteBuffer.wrap(id.toByteArray());
+        return new int[]{bytes.getInt(), bytes.getInt(), bytes.getInt()};
+    }
+}
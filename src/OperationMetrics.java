@@ -0,0 +1,165 @@
+package org.example;
+
+import com.mongodb.event.CommandFailedEvent;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import com.mongodb.event.CommandSucceededEvent;
+import org.bson.Document;
+import org.bson.json.JsonWriterSettings;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Latency and error counts per Mongo command and per UI action. Registered as the client's
+// CommandListener; commands run by the sync driver on the thread of the action that issued
+// them, so each command is also counted against that action. Commands slower than the
+// threshold (-Dmoviebrowser.slowQueryMs, default 200) are logged with their text.
+public class OperationMetrics implements CommandListener {
+    private static final JsonWriterSettings COMMAND_TEXT = JsonWriterSettings.builder().maxLength(1000).build();
+
+    private final ConcurrentMap<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LatencyHistogram> actions = new ConcurrentHashMap<>();
+    // action -> command -> number of commands it issued
+    private final ConcurrentMap<String, ConcurrentMap<String, AtomicLong>> commandsPerAction = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Integer, String> startedCommands = new ConcurrentHashMap<>();
+    private final ThreadLocal<String> currentAction = new ThreadLocal<>();
+    private final long slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("moviebrowser.slowQueryMs", 200));
+    private final AtomicLong slowQueries = new AtomicLong();
+
+    public interface Action<T> {
+        T run() throws Exception;
+    }
+
+    // Times a UI action and attributes any Mongo commands it runs on this thread to it
+    public <T> T time(String action, Action<T> work) throws Exception {
+        String outer = currentAction.get();
+        currentAction.set(action);
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T result = work.run();
+            failed = false;
+            return result;
+        } finally {
+            actions.computeIfAbsent(action, a -> new LatencyHistogram()).record(System.nanoTime() - start, failed);
+            currentAction.set(outer);
+        }
+    }
+
+    public <T> Callable<T> timed(String action, Action<T> work) {
+        return () -> time(action, work);
+    }
+
+    @Override
+    public void commandStarted(CommandStartedEvent event) {
+        String action = currentAction.get();
+        if (action != null) {
+            commandsPerAction.computeIfAbsent(action, a -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(event.getCommandName(), c -> new AtomicLong())
+                    .incrementAndGet();
+        }
+        // The event's document is only valid during the callback, so keep a bounded copy
+        startedCommands.put(event.getRequestId(), event.getCommand().toJson(COMMAND_TEXT));
+    }
+
+    @Override
+    public void commandSucceeded(CommandSucceededEvent event) {
+        finished(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), false);
+    }
+
+    @Override
+    public void commandFailed(CommandFailedEvent event) {
+        finished(event.getRequestId(), event.getCommandName(), event.getElapsedTime(TimeUnit.NANOSECONDS), true);
+    }
+
+    private void finished(int requestId, String commandName, long nanos, boolean failed) {
+        commands.computeIfAbsent(commandName, c -> new LatencyHistogram()).record(nanos, failed);
+        String command = startedCommands.remove(requestId);
+        if (nanos >= slowQueryNanos) {
+            slowQueries.incrementAndGet();
+            System.err.printf("SLOW %s %.1f ms%s: %s%n", commandName, nanos / 1e6,
+                    failed ? " (failed)" : "", command);
+        }
+    }
+
+    public long slowQueryCount() {
+        return slowQueries.get();
+    }
+
+    // One row per action and per command: kind, name, count, errors, error %, p50, p95, p99, max
+    public List<Object[]> rows() {
+        List<Object[]> rows = new ArrayList<>();
+        addRows(rows, "action", actions);
+        addRows(rows, "command", commands);
+        return rows;
+    }
+
+    private static void addRows(List<Object[]> rows, String kind, Map<String, LatencyHistogram> histograms) {
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            rows.add(new Object[]{kind, entry.getKey(), h.count(), h.errors(),
+                    String.format("%.1f%%", h.count() == 0 ? 0.0 : h.errors() * 100.0 / h.count()),
+                    h.percentileMillis(0.50), h.percentileMillis(0.95), h.percentileMillis(0.99), h.maxMillis()});
+        }
+    }
+
+    // e.g. "search: find x2, getMore x1"
+    public List<String> commandsPerAction() {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, ConcurrentMap<String, AtomicLong>> action : new TreeMap<>(commandsPerAction).entrySet()) {
+            long runs = actions.containsKey(action.getKey()) ? actions.get(action.getKey()).count() : 0;
+            StringJoiner counts = new StringJoiner(", ");
+            for (Map.Entry<String, AtomicLong> command : new TreeMap<>(action.getValue()).entrySet()) {
+                counts.add(String.format("%s %.1f/run", command.getKey(),
+                        runs == 0 ? 0.0 : command.getValue().get() / (double) runs));
+            }
+            lines.add(action.getKey() + ": " + counts);
+        }
+        return lines;
+    }
+
+    public void export(Path file) throws IOException {
+        Files.write(file, toDocument().toJson(JsonWriterSettings.builder().indent(true).build())
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Everything the Diagnostics dialog shows, as one document
+    public Document toDocument() {
+        Document export = new Document("exportedAt", new Date())
+                .append("slowQueryThresholdMs", TimeUnit.NANOSECONDS.toMillis(slowQueryNanos))
+                .append("slowQueries", slowQueries.get());
+        export.append("actions", toDocuments(actions));
+        export.append("commands", toDocuments(commands));
+        Document perAction = new Document();
+        commandsPerAction.forEach((action, counts) -> {
+            Document commandCounts = new Document();
+            counts.forEach((command, n) -> commandCounts.append(command, n.get()));
+            perAction.append(action, commandCounts);
+        });
+        export.append("commandsPerAction", perAction);
+        return export;
+    }
+
+    private static Document toDocuments(Map<String, LatencyHistogram> histograms) {
+        Document result = new Document();
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(histograms).entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            result.append(entry.getKey(), new Document("count", h.count())
+                    .append("errors", h.errors())
+                    .append("meanMs", h.meanMillis())
+                    .append("p50Ms", h.percentileMillis(0.50))
+                    .append("p95Ms", h.percentileMillis(0.95))
+                    .append("p99Ms", h.percentileMillis(0.99))
+                    .append("maxMs", h.maxMillis()));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,294 @@
+package org.example;
+
+import org.bson.types.ObjectId;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Table model over the movie catalog, narrowed by a facet filter, that loads fixed-size pages
+// only when the table asks for their rows. Pages are found with keyset pagination in the chosen
+// sort order, never skip, and only a bounded window of recently used pages stays on the heap.
+// The user's own writes patch the loaded pages in place instead of reloading the view.
+public class PagedMovieTableModel extends AbstractTableModel {
+    public static final int PAGE_SIZE = 200;
+    private static final int MAX_CACHED_PAGES = 20;
+
+    private final String[] columns;
+    private final MovieSort sort;
+    private final FacetFilter filter;
+    private final MovieRepository repository;
+    private final Function<MovieRow, Object[]> rowMapper;
+    private final Executor executor;
+    private final Consumer<String> status;
+
+    // A loaded page: the movies keep their sort keys for placing inserts, rows are what's shown
+    private record Page(List<MovieRow> movies, List<Object[]> rows) {
+    }
+
+    // Past this many pages from the nearest known boundary, one positional query finds the
+    // boundary instead of a keyset query per page in between
+    private static final int MAX_WALK_PAGES = 5;
+
+    // pageStarts.get(i) is the last row before page i (null for the first page). Boundaries are
+    // learned as pages load or as the table jumps ahead, so there can be gaps
+    private final TreeMap<Integer, MovieRow> pageStarts = new TreeMap<>();
+    // Bumped when an insert shifts the rows after it; loads started before then are dropped.
+    // Guarded by pageStarts, like the boundaries it invalidates
+    private int layoutVersion;
+    private final Map<Integer, Page> pages = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    private final Set<Integer> pendingPages = new HashSet<>();
+    private int rowCount;
+    private volatile boolean closed;
+
+    public PagedMovieTableModel(String[] columns, MovieSort sort, FacetFilter filter, MovieRepository repository,
+                                Function<MovieRow, Object[]> rowMapper, Executor executor,
+                                Consumer<String> status) {
+        this.columns = columns;
+        this.sort = sort;
+        this.filter = filter;
+        this.repository = repository;
+        this.rowMapper = rowMapper;
+        this.executor = executor;
+        this.status = status;
+        pageStarts.put(0, null);
+    }
+
+    // Counts the matches in the background; rows are then fetched as they scroll into view
+    public void open(String label) {
+        status.accept(label + ": counting...");
+        long start = System.nanoTime();
+        executor.execute(() -> {
+            try {
+                long count = repository.countMovies(filter);
+                SwingUtilities.invokeLater(() -> {
+                    if (closed) {
+                        return;
+                    }
+                    rowCount = (int) Math.min(count, Integer.MAX_VALUE);
+                    fireTableDataChanged();
+                    status.accept(label + ": " + rowCount + " movies ("
+                            + (System.nanoTime() - start) / 1_000_000 + " ms)");
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> status.accept(label + ": failed - " + e.getMessage()));
+            }
+        });
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    public MovieSort sort() {
+        return sort;
+    }
+
+    // Columns line up with MovieSort.Key, so the sorted one gets the arrow
+    @Override
+    public String getColumnName(int column) {
+        if (column != sort.key().ordinal() || sort.equals(MovieSort.DEFAULT)) {
+            return columns[column];
+        }
+        return columns[column] + (sort.descending() ? " \u25BC" : " \u25B2");
+    }
+
+    @Override
+    public boolean isCellEditable(int row, int column) {
+        return false;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int page = rowIndex / PAGE_SIZE;
+        Page loaded = pages.get(page);
+        if (loaded == null) {
+            requestPage(page);
+            return columnIndex == 1 ? "Loading..." : null;
+        }
+        int offset = rowIndex % PAGE_SIZE;
+        return offset < loaded.rows().size() ? loaded.rows().get(offset)[columnIndex] : null;
+    }
+
+    // Sets one column of the movie's row wherever it is loaded; a row not loaded yet will be
+    // read with the new value anyway
+    public void updateValue(ObjectId movieId, int column, Object value) {
+        forEachLoaded(movieId, row -> row[column] = value);
+    }
+
+    // For changes the renderer shows without the row's values changing, like the watchlist star
+    public void rowChanged(ObjectId movieId) {
+        forEachLoaded(movieId, row -> { });
+    }
+
+    private void forEachLoaded(ObjectId movieId, Consumer<Object[]> change) {
+        for (Map.Entry<Integer, Page> entry : pages.entrySet()) {
+            List<Object[]> rows = entry.getValue().rows();
+            for (int offset = 0; offset < rows.size(); offset++) {
+                if (movieId.equals(rows.get(offset)[0])) {
+                    change.accept(rows.get(offset));
+                    int index = entry.getKey() * PAGE_SIZE + offset;
+                    fireTableRowsUpdated(index, index);
+                }
+            }
+        }
+    }
+
+    // Places a movie the user just added without recounting or reloading. If the page it sorts
+    // into is loaded the row goes in at its position; the pages after it are dropped, since
+    // their rows all move down by one, and reload from the boundaries still known to be right.
+    public void insert(MovieRow movie) {
+        if (closed || !filter.matches(movie)) {
+            return;
+        }
+        Comparator<MovieRow> order = sort.comparator();
+        int page;
+        synchronized (pageStarts) {
+            page = 0;
+            for (Map.Entry<Integer, MovieRow> start : pageStarts.descendingMap().entrySet()) {
+                if (start.getKey() == 0 || order.compare(start.getValue(), movie) < 0) {
+                    page = start.getKey();
+                    break;
+                }
+            }
+            pageStarts.tailMap(page, false).clear();
+            layoutVersion++;
+        }
+        int insertedPage = page;
+        pages.keySet().removeIf(p -> p > insertedPage);
+        pendingPages.clear();
+
+        int index = page * PAGE_SIZE;
+        Page loaded = pages.get(page);
+        if (loaded != null) {
+            int offset = Collections.binarySearch(loaded.movies(), movie, order);
+            offset = offset < 0 ? -offset - 1 : offset;
+            loaded.movies().add(offset, movie);
+            loaded.rows().add(offset, rowMapper.apply(movie));
+            // The page's last row is now the next page's first
+            if (loaded.movies().size() > PAGE_SIZE) {
+                loaded.movies().remove(PAGE_SIZE);
+                loaded.rows().remove(PAGE_SIZE);
+            }
+            if (loaded.movies().size() == PAGE_SIZE) {
+                recordPageStart(page + 1, loaded.movies().get(PAGE_SIZE - 1), layoutVersion());
+            }
+            index += offset;
+        }
+        rowCount++;
+        fireTableRowsInserted(index, index);
+    }
+
+    private int layoutVersion() {
+        synchronized (pageStarts) {
+            return layoutVersion;
+        }
+    }
+
+    private void requestPage(int page) {
+        if (closed || !pendingPages.add(page)) {
+            return;
+        }
+        int version = layoutVersion();
+        executor.execute(() -> {
+            try {
+                Page rows = fetchPage(page, version);
+                SwingUtilities.invokeLater(() -> {
+                    if (closed || version != layoutVersion()) {
+                        return;
+                    }
+                    pendingPages.remove(page);
+                    pages.put(page, rows);
+                    int first = page * PAGE_SIZE;
+                    int last = Math.min(first + PAGE_SIZE, rowCount) - 1;
+                    if (last >= first) {
+                        fireTableRowsUpdated(first, last);
+                    }
+                });
+            } catch (Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> {
+                    if (version == layoutVersion()) {
+                        pendingPages.remove(page);
+                    }
+                    status.accept("Failed to load rows: " + e.getMessage());
+                });
+            }
+        });
+    }
+
+    private Page fetchPage(int page, int version) {
+        List<MovieRow> movies = new ArrayList<>(repository.moviesAfter(sort, filter, pageStart(page, version),
+                PAGE_SIZE));
+        List<Object[]> rows = new ArrayList<>(movies.size());
+        for (MovieRow movie : movies) {
+            rows.add(rowMapper.apply(movie));
+        }
+        if (movies.size() == PAGE_SIZE) {
+            recordPageStart(page + 1, movies.get(PAGE_SIZE - 1), version);
+        }
+        return new Page(movies, rows);
+    }
+
+    // Walks forward from the nearest known page boundary fetching sort keys only, or jumps
+    // straight to the boundary when it is far ahead, as when the scrollbar is dragged to the end
+    private MovieRow pageStart(int page, int version) {
+        int known;
+        MovieRow after;
+        synchronized (pageStarts) {
+            if (pageStarts.containsKey(page)) {
+                return pageStarts.get(page);
+            }
+            Map.Entry<Integer, MovieRow> floor = pageStarts.floorEntry(page);
+            known = floor.getKey();
+            after = floor.getValue();
+        }
+        if (page - known > MAX_WALK_PAGES) {
+            MovieRow start = repository.movieKeyAt(sort, filter, (long) page * PAGE_SIZE - 1);
+            if (start != null) {
+                recordPageStart(page, start, version);
+                return start;
+            }
+        }
+        for (int p = known; p < page; p++) {
+            List<MovieRow> keys = repository.movieKeysAfter(sort, filter, after, PAGE_SIZE);
+            if (keys.isEmpty()) {
+                return after;
+            }
+            MovieRow last = keys.get(keys.size() - 1);
+            if (keys.size() < PAGE_SIZE) {
+                return last;
+            }
+            recordPageStart(p + 1, last, version);
+            after = last;
+        }
+        return after;
+    }
+
+    private void recordPageStart(int page, MovieRow after, int version) {
+        synchronized (pageStarts) {
+            if (version == layoutVersion) {
+                pageStarts.putIfAbsent(page, after);
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.example;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Runs database work off the event dispatch thread. Table loads stream their rows into the
+// table model in batches, one table event per batch, and starting a new load cancels the one
+// still in flight.
+public class QueryRunner {
+    private static final int BATCH_SIZE = 100;
+    private static final long FLUSH_INTERVAL_MS = 50;
+
+    // Produces rows for a table load; called on a worker thread
+    public interface RowSource {
+        void stream(Consumer<Object[]> sink) throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final MovieTableModel tableModel;
+    private final JLabel statusLabel;
+    private final AtomicLong generation = new AtomicLong();
+    private Future<?> currentLoad;
+
+    public QueryRunner(MovieTableModel tableModel, JLabel statusLabel, int threads) {
+        this.tableModel = tableModel;
+        this.statusLabel = statusLabel;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r, "query-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    // Must be called on the event dispatch thread
+    public void load(String label, RowSource source, Consumer<Exception> onError) {
+        if (currentLoad != null) {
+            currentLoad.cancel(true);
+        }
+        long loadId = generation.incrementAndGet();
+        tableModel.clear();
+        statusLabel.setText(label + ": loading...");
+
+        currentLoad = executor.submit(() -> {
+            long start = System.nanoTime();
+            long[] lastFlush = {start};
+            int[] total = {0};
+            List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+            try {
+                source.stream(row -> {
+                    if (generation.get() != loadId || Thread.currentThread().isInterrupted()) {
+                        throw new CancellationException();
+                    }
+                    batch.add(row);
+                    total[0]++;
+                    long now = System.nanoTime();
+                    if (batch.size() >= BATCH_SIZE
+                            || TimeUnit.NANOSECONDS.toMillis(now - lastFlush[0]) >= FLUSH_INTERVAL_MS) {
+                        publish(loadId, new ArrayList<>(batch),
+                                label + ": " + total[0] + " rows so far (" + elapsedMs(start) + " ms)");
+                        batch.clear();
+                        lastFlush[0] = now;
+                    }
+                });
+                publish(loadId, new ArrayList<>(batch),
+                        label + ": " + total[0] + " rows in " + elapsedMs(start) + " ms");
+            } catch (CancellationException e) {
+                // A newer load replaced this one
+            } catch (Exception e) {
+                if (generation.get() == loadId) {
+                    e.printStackTrace();
+                    SwingUtilities.invokeLater(() -> {
+                        if (generation.get() == loadId) {
+                            statusLabel.setText(label + ": failed");
+                            onError.accept(e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // Drops whatever load is in flight without starting a new one
+    public void cancelLoad() {
+        generation.incrementAndGet();
+        if (currentLoad != null) {
+            currentLoad.cancel(true);
+            currentLoad = null;
+        }
+    }
+
+    public Executor executor() {
+        return executor;
+    }
+
+    // Runs a single piece of work in the background and hands the result back on the EDT
+    public <T> void run(Callable<T> work, Consumer<T> onSuccess, Consumer<Exception> onError) {
+        executor.submit(() -> {
+            try {
+                T result = work.call();
+                SwingUtilities.invokeLater(() -> onSuccess.accept(result));
+            } catch (Exception e) {
+                e.printStackTrace();
+                SwingUtilities.invokeLater(() -> onError.accept(e));
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void publish(long loadId, List<Object[]> rows, String status) {
+        SwingUtilities.invokeLater(() -> {
+            if (generation.get() != loadId) {
+                return;
+            }
+            tableModel.addRows(rows);
+            statusLabel.setText(status);
+        });
+    }
+
+    private static long elapsedMs(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
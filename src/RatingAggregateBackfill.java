@@ -0,0 +1,67 @@
+package org.example;
+
+import com.mongodb.client.*;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.*;
+
+// One-time job that fills ratingSum/ratingCount/avgRating on every movie from the existing Ratings.
+// Run it once, while nobody is rating, before starting the browser against old data.
+public class RatingAggregateBackfill {
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+        String uri = args.length > 0 ? args[0] : "mongodb://localhost:27017";
+        try (MongoClient mongoClient = MongoClients.create(uri)) {
+            long updated = run(mongoClient.getDatabase("Movie-Browser"));
+            System.out.println("Backfilled rating aggregates for " + updated + " movies");
+        }
+    }
+
+    public static long run(MongoDatabase database) {
+        MongoCollection<Document> movies = database.getCollection("Movies");
+        MongoCollection<Document> ratings = database.getCollection("Ratings");
+
+        // Movies nobody has rated start from zero
+        movies.updateMany(exists("ratingCount", false),
+                Updates.combine(Updates.set("ratingSum", 0), Updates.set("ratingCount", 0)));
+        movies.updateMany(exists("avgRating", false), Updates.set("avgRating", 0.0));
+
+        List<Document> pipeline = Arrays.asList(
+                new Document("$group", new Document("_id", "$movieId")
+                        .append("ratingSum", new Document("$sum", "$rating"))
+                        .append("ratingCount", new Document("$sum", 1)))
+        );
+
+        long updated = 0;
+        List<WriteModel<Document>> batch = new ArrayList<>();
+        for (Document group : ratings.aggregate(pipeline).allowDiskUse(true)) {
+            Number sum = group.get("ratingSum", Number.class);
+            Number count = group.get("ratingCount", Number.class);
+            batch.add(new UpdateOneModel<>(eq("_id", group.get("_id")),
+                    Updates.combine(
+                            Updates.set("ratingSum", sum),
+                            Updates.set("ratingCount", count),
+                            Updates.set("avgRating", sum.doubleValue() / count.longValue()))));
+            if (batch.size() == BATCH_SIZE) {
+                updated += flush(movies, batch);
+            }
+        }
+        if (!batch.isEmpty()) {
+            updated += flush(movies, batch);
+        }
+        return updated;
+    }
+
+    private static long flush(MongoCollection<Document> movies, List<WriteModel<Document>> batch) {
+        int size = batch.size();
+        movies.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+        batch.clear();
+        return size;
+    }
+}
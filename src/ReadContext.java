@@ -0,0 +1,43 @@
+package org.example;
+
+import org.bson.types.ObjectId;
+
+import java.util.concurrent.Callable;
+
+// Which user the calls on this thread are made for, set by the movie server around each
+// request. MongoMovieRepository uses it to send a user's reads to the primary right after that
+// user's own writes, without doing the same for everyone else sharing the repository. Unset in
+// the desktop browser, where every call is for the one logged-in user.
+public final class ReadContext {
+    private static final ThreadLocal<ReadContext> CURRENT = new ThreadLocal<>();
+
+    private final ObjectId userId;
+
+    private ReadContext(ObjectId userId) {
+        this.userId = userId;
+    }
+
+    // userId may be null for a caller that isn't logged in
+    public static <T> T callAs(ObjectId userId, Callable<T> call) throws Exception {
+        ReadContext outer = CURRENT.get();
+        CURRENT.set(new ReadContext(userId));
+        try {
+            return call.call();
+        } finally {
+            if (outer == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(outer);
+            }
+        }
+    }
+
+    // Null when no caller was bound
+    static ReadContext current() {
+        return CURRENT.get();
+    }
+
+    ObjectId userId() {
+        return userId;
+    }
+}
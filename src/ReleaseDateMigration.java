@@ -0,0 +1,253 @@
+package org.example;
+
+import com.mongodb.client.*;
+import com.mongodb.client.model.*;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.ObjectId;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.mongodb.client.model.Filters.*;
+
+// Converts releaseDate on every movie from the text older versions stored to a BSON date plus
+// an int year, so date sorting and year ranges are index scans. Text that isn't a date moves
+// to releaseDateText, keeping any year it names; blank text is dropped.
+//
+// One thread walks Movies in _id order and hands batches to a pool of writers that apply them
+// with unordered bulk writes. The walk is throttled to --max-per-second movies so the job can
+// run next to the browser. The _id before the first unfinished batch is checkpointed in the
+// Migrations collection, so a stopped run picks up where it left off; each update only applies
+// if releaseDate is still the text that was read, so movies edited meanwhile are left alone.
+//
+// Usage: ReleaseDateMigration [mongoUri] [--threads n] [--batch n] [--max-per-second n] [--restart]
+public class ReleaseDateMigration {
+    private static final String CHECKPOINT_ID = "releaseDate";
+
+    private static final class Batch {
+        final long sequence;
+        final List<ObjectId> ids;
+
+        Batch(long sequence, List<ObjectId> ids) {
+            this.sequence = sequence;
+            this.ids = ids;
+        }
+    }
+
+    private static final Batch END = new Batch(-1, Collections.emptyList());
+
+    private final MongoCollection<Document> movies;
+    private final MongoCollection<Document> migrations;
+    private final int threads;
+    private final int batchSize;
+    private final int maxPerSecond;
+    private final AtomicLong converted = new AtomicLong();
+    private final AtomicLong untyped = new AtomicLong();
+    private final AtomicLong cleared = new AtomicLong();
+    // Batch sequence -> last _id in it, for batches handed out but not written yet, and for
+    // written batches still behind an unwritten one
+    private final TreeMap<Long, ObjectId> inFlight = new TreeMap<>();
+    private final TreeMap<Long, ObjectId> written = new TreeMap<>();
+    private volatile Throwable failure;
+
+    public ReleaseDateMigration(MongoDatabase database, int threads, int batchSize, int maxPerSecond) {
+        this.movies = database.getCollection("Movies");
+        this.migrations = database.getCollection("Migrations");
+        this.threads = threads;
+        this.batchSize = batchSize;
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String uri = "mongodb://localhost:27017";
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batchSize = 500;
+        int maxPerSecond = 5000;
+        boolean restart = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--batch") && i + 1 < args.length) {
+                batchSize = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--max-per-second") && i + 1 < args.length) {
+                maxPerSecond = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--restart")) {
+                restart = true;
+            } else {
+                uri = args[i];
+            }
+        }
+
+        try (MongoClient mongoClient = MongoClients.create(uri)) {
+            MongoDatabase database = mongoClient.getDatabase("Movie-Browser");
+            new ReleaseDateMigration(database, threads, batchSize, maxPerSecond).run(restart);
+            // Years can shift for text that now parses differently
+            FacetBackfill.recount(database);
+        }
+    }
+
+    public void run(boolean restart) throws Exception {
+        if (restart) {
+            migrations.deleteOne(eq("_id", CHECKPOINT_ID));
+        }
+        Document checkpoint = migrations.find(eq("_id", CHECKPOINT_ID)).first();
+        ObjectId after = checkpoint == null ? null : checkpoint.getObjectId("after");
+        if (after != null) {
+            System.out.println("Resuming after " + after);
+        }
+
+        BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(threads * 2);
+        List<Thread> writers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread writer = new Thread(() -> writeLoop(batches), "release-date-write-" + i);
+            writer.start();
+            writers.add(writer);
+        }
+        long start = System.nanoTime();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "release-date-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        progress.scheduleAtFixedRate(() -> printProgress(start), 1, 1, TimeUnit.SECONDS);
+
+        try {
+            try {
+                readBatches(after, batches, start);
+            } catch (Exception e) {
+                failure = e;
+            } finally {
+                for (int i = 0; i < threads; i++) {
+                    batches.put(END);
+                }
+            }
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        } finally {
+            progress.shutdownNow();
+        }
+
+        if (failure != null) {
+            throw new IllegalStateException("Migration stopped; rerun to resume", failure);
+        }
+        printProgress(start);
+        System.out.println("Migration finished");
+    }
+
+    // Only ids travel through the queue; writers read the text themselves, right before
+    // converting it
+    private void readBatches(ObjectId after, BlockingQueue<Batch> batches, long start) throws Exception {
+        long sequence = 0;
+        long read = 0;
+        while (failure == null) {
+            Bson untypedDate = type("releaseDate", BsonType.STRING);
+            List<ObjectId> batch = new ArrayList<>(batchSize);
+            for (Document movie : movies.find(after == null ? untypedDate : and(untypedDate, gt("_id", after)))
+                    .projection(Projections.include("_id"))
+                    .sort(Sorts.ascending("_id"))
+                    .limit(batchSize)) {
+                batch.add(movie.getObjectId("_id"));
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            after = batch.get(batch.size() - 1);
+            synchronized (inFlight) {
+                inFlight.put(sequence, after);
+            }
+            batches.put(new Batch(sequence++, batch));
+            read += batch.size();
+
+            // Throttle: stay at or under maxPerSecond on average
+            long due = start + read * 1_000_000_000L / maxPerSecond;
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+    }
+
+    private void writeLoop(BlockingQueue<Batch> batches) {
+        try {
+            while (true) {
+                Batch batch = batches.take();
+                if (batch == END) {
+                    return;
+                }
+                if (failure == null) {
+                    convert(batch.ids);
+                    finished(batch.sequence);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            e.printStackTrace();
+            failure = e;
+            // Keep draining so the reader isn't left blocked on a full queue
+            try {
+                while (batches.take() != END) {
+                    // discard
+                }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void convert(List<ObjectId> ids) {
+        List<WriteModel<Document>> updates = new ArrayList<>(ids.size());
+        for (Document movie : movies.find(and(in("_id", ids), type("releaseDate", BsonType.STRING)))
+                .projection(Projections.include("releaseDate"))) {
+            String text = movie.getString("releaseDate");
+            LocalDate date = ReleaseDates.parse(text);
+            Bson update;
+            if (date != null) {
+                update = Updates.combine(Updates.set("releaseDate", ReleaseDates.toDate(date)),
+                        Updates.set("year", date.getYear()), Updates.unset("releaseDateText"));
+                converted.incrementAndGet();
+            } else if (text.isBlank()) {
+                update = Updates.combine(Updates.unset("releaseDate"), Updates.unset("year"));
+                cleared.incrementAndGet();
+            } else {
+                Integer year = FacetFilter.yearOf(text);
+                update = Updates.combine(Updates.set("releaseDateText", text), Updates.unset("releaseDate"),
+                        year == null ? Updates.unset("year") : Updates.set("year", year));
+                untyped.incrementAndGet();
+            }
+            updates.add(new UpdateOneModel<>(and(eq("_id", movie.get("_id")), eq("releaseDate", text)), update));
+        }
+        if (!updates.isEmpty()) {
+            movies.bulkWrite(updates, new BulkWriteOptions().ordered(false));
+        }
+    }
+
+    // Moves the checkpoint past every written batch older than the oldest unwritten one
+    private void finished(long sequence) {
+        ObjectId checkpoint = null;
+        synchronized (inFlight) {
+            written.put(sequence, inFlight.remove(sequence));
+            Long oldestUnwritten = inFlight.isEmpty() ? null : inFlight.firstKey();
+            while (!written.isEmpty() && (oldestUnwritten == null || written.firstKey() < oldestUnwritten)) {
+                checkpoint = written.pollFirstEntry().getValue();
+            }
+        }
+        // $max, as writers can get here out of order
+        if (checkpoint != null) {
+            migrations.updateOne(eq("_id", CHECKPOINT_ID), Updates.max("after", checkpoint),
+                    new UpdateOptions().upsert(true));
+        }
+    }
+
+    private void printProgress(long start) {
+        double seconds = Math.max((System.nanoTime() - start) / 1e9, 0.001);
+        long done = converted.get() + untyped.get() + cleared.get();
+        System.out.printf("%,d dates converted, %,d kept as text, %,d blank cleared, %,.0f movies/s%n",
+                converted.get(), untyped.get(), cleared.get(), done / seconds);
+    }
+}
@@ -0,0 +1,91 @@
+package org.example;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.time.temporal.ChronoField;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+// releaseDate is stored as a BSON date at UTC midnight plus an int year, so sorting and year
+// ranges are index scans. This turns the free-form text people type or import into that form,
+// and stored values back into yyyy-MM-dd for display.
+public final class ReleaseDates {
+    public static final int MIN_YEAR = 1870;
+    public static final int MAX_YEAR = 2100;
+
+    // Tried in order; a bare year or year-month means the first of that year or month
+    private static final List<DateTimeFormatter> FORMATS = Arrays.asList(
+            pattern("uuuu-M-d"),
+            pattern("uuuu/M/d"),
+            pattern("uuuuMMdd"),
+            pattern("uuuu-M", ChronoField.DAY_OF_MONTH),
+            pattern("uuuu", ChronoField.MONTH_OF_YEAR, ChronoField.DAY_OF_MONTH),
+            pattern("M/d/uuuu"),
+            pattern("d MMM uuuu"),
+            pattern("d MMMM uuuu"),
+            pattern("MMM d, uuuu"),
+            pattern("MMMM d, uuuu"));
+
+    private ReleaseDates() {
+    }
+
+    private static DateTimeFormatter pattern(String pattern, ChronoField... defaultedToOne) {
+        DateTimeFormatterBuilder builder = new DateTimeFormatterBuilder().parseCaseInsensitive().appendPattern(pattern);
+        for (ChronoField field : defaultedToOne) {
+            builder.parseDefaulting(field, 1);
+        }
+        return builder.toFormatter(Locale.ENGLISH).withResolverStyle(ResolverStyle.STRICT);
+    }
+
+    // The date, or null if the text isn't a recognisable date in a plausible year
+    public static LocalDate parse(String text) {
+        if (text == null || text.isBlank()) {
+            return null;
+        }
+        String trimmed = text.trim();
+        // Full ISO timestamps, as older exports wrote them
+        if (trimmed.length() > 10 && trimmed.charAt(10) == 'T') {
+            trimmed = trimmed.substring(0, 10);
+        }
+        for (DateTimeFormatter format : FORMATS) {
+            try {
+                LocalDate date = LocalDate.parse(trimmed, format);
+                return date.getYear() < MIN_YEAR || date.getYear() > MAX_YEAR ? null : date;
+            } catch (DateTimeParseException e) {
+                // Try the next format
+            }
+        }
+        return null;
+    }
+
+    public static Date toDate(LocalDate date) {
+        return Date.from(date.atStartOfDay(ZoneOffset.UTC).toInstant());
+    }
+
+    public static LocalDate fromDate(Date date) {
+        return date.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    // A stored releaseDate, typed or not yet migrated, as display text
+    public static String text(Object value) {
+        if (value instanceof Date) {
+            return fromDate((Date) value).toString();
+        }
+        return value == null ? "" : value.toString();
+    }
+
+    // The year of a stored releaseDate, typed or not yet migrated, or null
+    public static Integer year(Object value) {
+        if (value instanceof Date) {
+            return fromDate((Date) value).getYear();
+        }
+        LocalDate date = parse(value == null ? null : value.toString());
+        return date == null ? null : date.getYear();
+    }
+}
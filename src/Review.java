@@ -0,0 +1,14 @@
+package org.example;
+
+import org.bson.types.ObjectId;
+
+import java.util.Date;
+
+// One review from a movie's feed. The id is an ObjectId dated when the review was written, so
+// it orders the feed newest first and is where the next page continues from.
+public record Review(ObjectId id, ObjectId movieId, ObjectId userId, int rating, String text) {
+
+    public Date writtenAt() {
+        return id.getDate();
+    }
+}
@@ -0,0 +1,98 @@
+package org.example;
+
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.mongodb.client.model.Filters.*;
+
+// How reviews are stored in the Reviews collection. Review text lives there rather than in
+// Ratings, so the rating aggregations and per-user joins only read small documents. Text over
+// COMPRESS_ABOVE bytes is stored deflated as binary; short text stays a plain string. A movie's
+// feed is read newest first by keyset on _id over the movieId_1__id_-1 index.
+public final class ReviewDocuments {
+    public static final String COLLECTION = "Reviews";
+    // Below this deflate's header and dictionary cost more than they save
+    static final int COMPRESS_ABOVE = 200;
+
+    private ReviewDocuments() {
+    }
+
+    // Keyed by (userId, movieId) like Ratings, so a retried write or a rerun migration can't
+    // add the same review twice; the id dates the review
+    public static UpdateOneModel<Document> upsert(ObjectId id, ObjectId userId, ObjectId movieId, int rating,
+                                                  String text) {
+        return new UpdateOneModel<>(and(eq("userId", userId), eq("movieId", movieId)),
+                Updates.combine(
+                        Updates.setOnInsert("_id", id),
+                        Updates.setOnInsert("rating", rating),
+                        Updates.setOnInsert("text", encode(text))),
+                new UpdateOptions().upsert(true));
+    }
+
+    // The movie's reviews older than before (null for the newest)
+    public static Bson pageFilter(ObjectId movieId, ObjectId before) {
+        return before == null ? eq("movieId", movieId) : and(eq("movieId", movieId), lt("_id", before));
+    }
+
+    public static Review review(Document document) {
+        Number rating = document.get("rating", Number.class);
+        return new Review(document.getObjectId("_id"), document.getObjectId("movieId"),
+                document.getObjectId("userId"), rating == null ? 0 : rating.intValue(), decode(document.get("text")));
+    }
+
+    static Object encode(String text) {
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        if (raw.length <= COMPRESS_ABOVE) {
+            return text;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            byte[] deflated = out.toByteArray();
+            return deflated.length < raw.length ? new Binary(deflated) : text;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static String decode(Object stored) {
+        if (!(stored instanceof Binary)) {
+            return stored == null ? "" : stored.toString();
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(((Binary) stored).getData());
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsInput()) {
+                    throw new IllegalStateException("Truncated review text");
+                }
+                out.write(buffer, 0, n);
+            }
+            return out.toString(StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt review text", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
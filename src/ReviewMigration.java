@@ -0,0 +1,72 @@
+package org.example;
+
+import com.mongodb.client.*;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static com.mongodb.client.model.Filters.*;
+
+// One-time job that moves review text written by older versions out of Ratings into Reviews,
+// dated by when the rating was made, and then unsets it from Ratings. Each batch lands in
+// Reviews before it is unset and the Reviews upserts are keyed by user and movie, so the job
+// can be rerun after a failure and can run while the browser is in use.
+public class ReviewMigration {
+    private static final int BATCH_SIZE = 1000;
+
+    public static void main(String[] args) {
+        String uri = args.length > 0 ? args[0] : "mongodb://localhost:27017";
+        try (MongoClient mongoClient = MongoClients.create(uri)) {
+            MongoDatabase database = mongoClient.getDatabase("Movie-Browser");
+            // The unique (userId, movieId) index on Reviews is what makes reruns safe
+            SchemaBootstrap.start(database).join();
+            long moved = run(database);
+            System.out.println("Moved " + moved + " reviews out of Ratings");
+        }
+    }
+
+    public static long run(MongoDatabase database) {
+        MongoCollection<Document> ratings = database.getCollection("Ratings");
+        MongoCollection<Document> reviews = database.getCollection(ReviewDocuments.COLLECTION);
+
+        long moved = 0;
+        List<WriteModel<Document>> reviewBatch = new ArrayList<>();
+        List<WriteModel<Document>> unsetBatch = new ArrayList<>();
+        for (Document rating : ratings.find(exists("review"))
+                .projection(Projections.include("userId", "movieId", "rating", "review", "ratedDate"))) {
+            Object review = rating.get("review");
+            if (review instanceof String && !((String) review).trim().isEmpty()) {
+                Date ratedDate = rating.getDate("ratedDate");
+                Number score = rating.get("rating", Number.class);
+                reviewBatch.add(ReviewDocuments.upsert(
+                        ratedDate == null ? rating.getObjectId("_id") : new ObjectId(ratedDate),
+                        rating.getObjectId("userId"), rating.getObjectId("movieId"),
+                        score == null ? 0 : score.intValue(), (String) review));
+            }
+            unsetBatch.add(new UpdateOneModel<>(eq("_id", rating.get("_id")), Updates.unset("review")));
+            if (unsetBatch.size() == BATCH_SIZE) {
+                moved += flush(reviews, reviewBatch, ratings, unsetBatch);
+            }
+        }
+        if (!unsetBatch.isEmpty()) {
+            moved += flush(reviews, reviewBatch, ratings, unsetBatch);
+        }
+        return moved;
+    }
+
+    private static long flush(MongoCollection<Document> reviews, List<WriteModel<Document>> reviewBatch,
+                              MongoCollection<Document> ratings, List<WriteModel<Document>> unsetBatch) {
+        int size = reviewBatch.size();
+        if (!reviewBatch.isEmpty()) {
+            reviews.bulkWrite(reviewBatch, new BulkWriteOptions().ordered(false));
+        }
+        ratings.bulkWrite(unsetBatch, new BulkWriteOptions().ordered(false));
+        reviewBatch.clear();
+        unsetBatch.clear();
+        return size;
+    }
+}
@@ -0,0 +1,204 @@
+package org.example;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Declares the collections and indexes the browser needs and brings the database up to date in
+// the background: one collection listing, one index listing per collection, and only the
+// missing indexes get created, all at the same time.
+public class SchemaBootstrap {
+    // Top-rated queries asking for at least this many votes can use the leaderboard indexes
+    public static final int LEADERBOARD_MIN_VOTES = 5;
+
+    // Suffix of the index a unique upgrade builds before the old index is dropped
+    private static final String UNIQUE_BUILD_SUFFIX = "_unique_build";
+
+    private static final List<String> COLLECTIONS = Arrays.asList("Movies", "Users", "Ratings", "Watchlist",
+            FacetDictionary.COLLECTION, ReviewDocuments.COLLECTION);
+
+    private static final class IndexSpec {
+        final String collection;
+        final Bson keys;
+        final IndexOptions options;
+
+        IndexSpec(String collection, Bson keys, IndexOptions options) {
+            this.collection = collection;
+            this.keys = keys;
+            this.options = options;
+        }
+    }
+
+    // Names follow Mongo's defaults so indexes made by older versions are recognised
+    private static final List<IndexSpec> INDEXES = Arrays.asList(
+            new IndexSpec("Users", Indexes.ascending("username"),
+                    new IndexOptions().name("username_1").unique(true)),
+            new IndexSpec("Users", Indexes.ascending("email"),
+                    new IndexOptions().name("email_1").unique(true)),
+            // Per-user lookups and the watchlist/rated joins; unique so writes can be plain upserts
+            new IndexSpec("Watchlist", Indexes.ascending("userId", "movieId"),
+                    new IndexOptions().name("userId_1_movieId_1").unique(true)),
+            new IndexSpec("Ratings", Indexes.ascending("userId", "movieId"),
+                    new IndexOptions().name("userId_1_movieId_1").unique(true)),
+            new IndexSpec("Ratings", Indexes.ascending("movieId"),
+                    new IndexOptions().name("movieId_1")),
+            // A movie's review feed, newest first; one review per rating
+            new IndexSpec(ReviewDocuments.COLLECTION,
+                    Indexes.compoundIndex(Indexes.ascending("movieId"), Indexes.descending("_id")),
+                    new IndexOptions().name("movieId_1__id_-1")),
+            new IndexSpec(ReviewDocuments.COLLECTION, Indexes.ascending("userId", "movieId"),
+                    new IndexOptions().name("userId_1_movieId_1").unique(true)),
+            // Delta queries that keep the local catalog snapshot current
+            new IndexSpec("Movies", Indexes.ascending("addedDate"),
+                    new IndexOptions().name("addedDate_1")),
+            new IndexSpec("Movies", Indexes.ascending("lastRatedDate"),
+                    new IndexOptions().name("lastRatedDate_1")),
+            // Column-header sorting: keyset paging on (field, _id), walked in either direction
+            new IndexSpec("Movies", Indexes.ascending("title", "_id"),
+                    new IndexOptions().name("title_1__id_1")),
+            new IndexSpec("Movies", Indexes.ascending("releaseDate", "_id"),
+                    new IndexOptions().name("releaseDate_1__id_1")),
+            new IndexSpec("Movies", Indexes.ascending("genre", "_id"),
+                    new IndexOptions().name("genre_1__id_1")),
+            new IndexSpec("Movies", Indexes.ascending("director", "_id"),
+                    new IndexOptions().name("director_1__id_1")),
+            new IndexSpec("Movies", Indexes.ascending("avgRating", "_id"),
+                    new IndexOptions().name("avgRating_1__id_1")),
+            // Top-rated leaderboards, overall and per genre; only movies with enough votes to
+            // rank are indexed, so the top of the index is the leaderboard
+            new IndexSpec("Movies", Indexes.descending("avgRating", "_id"),
+                    new IndexOptions().name("leaderboard_all")
+                            .partialFilterExpression(Filters.gte("ratingCount", LEADERBOARD_MIN_VOTES))),
+            new IndexSpec("Movies", Indexes.compoundIndex(Indexes.ascending("genre"), Indexes.descending("avgRating", "_id")),
+                    new IndexOptions().name("leaderboard_genre")
+                            .partialFilterExpression(Filters.gte("ratingCount", LEADERBOARD_MIN_VOTES))),
+            // Facet filters: equality on a dictionary code or a range of years, browsed in _id order
+            new IndexSpec("Movies", Indexes.ascending("genreCode", "_id"),
+                    new IndexOptions().name("genreCode_1__id_1")),
+            new IndexSpec("Movies", Indexes.ascending("directorCode", "_id"),
+                    new IndexOptions().name("directorCode_1__id_1")),
+            new IndexSpec("Movies", Indexes.ascending("year", "_id"),
+                    new IndexOptions().name("year_1__id_1")),
+            // Stored facet counts, most common first, and code -> label lookups
+            new IndexSpec(FacetDictionary.COLLECTION,
+                    Indexes.compoundIndex(Indexes.ascending("field"), Indexes.descending("count")),
+                    new IndexOptions().name("field_1_count_-1")),
+            new IndexSpec(FacetDictionary.COLLECTION, Indexes.ascending("code"),
+                    new IndexOptions().name("code_1").unique(true)
+                            .partialFilterExpression(Filters.exists("code"))),
+            // Text index used for searches until the in-process index has been built
+            new IndexSpec("Movies",
+                    Indexes.compoundIndex(Indexes.text("title"), Indexes.text("director"), Indexes.text("genre")),
+                    new IndexOptions().name("title_text_director_text_genre_text")
+                            .weights(new Document("title", 3).append("director", 2).append("genre", 1)))
+    );
+
+    // An index that could not be built; the database is reachable but not fully set up
+    public static final class SchemaException extends RuntimeException {
+        SchemaException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private SchemaBootstrap() {
+    }
+
+    public static CompletableFuture<Void> start(MongoDatabase database) {
+        ExecutorService executor = Executors.newFixedThreadPool(4, r -> {
+            Thread t = new Thread(r, "schema-bootstrap");
+            t.setDaemon(true);
+            return t;
+        });
+
+        CompletableFuture<Void> done = CompletableFuture.supplyAsync(() -> {
+            Set<String> existing = database.listCollectionNames().into(new HashSet<>());
+            for (String name : COLLECTIONS) {
+                if (!existing.contains(name)) {
+                    database.createCollection(name);
+                }
+            }
+            return existing;
+        }, executor).thenCompose(existing -> {
+            Map<String, Map<String, Document>> indexes = new HashMap<>();
+            for (String name : COLLECTIONS) {
+                Map<String, Document> byName = new HashMap<>();
+                if (existing.contains(name)) {
+                    for (Document index : database.getCollection(name).listIndexes()) {
+                        byName.put(index.getString("name"), index);
+                    }
+                }
+                indexes.put(name, byName);
+            }
+
+            List<CompletableFuture<Void>> pending = new ArrayList<>();
+            for (IndexSpec spec : INDEXES) {
+                Map<String, Document> byName = indexes.get(spec.collection);
+                Document current = byName.get(spec.options.getName());
+                // Older versions created these without the unique flag; a leftover build index
+                // means an earlier upgrade stopped part way
+                boolean upgrade = spec.options.isUnique()
+                        && (current != null && !current.getBoolean("unique", false)
+                        || byName.containsKey(spec.options.getName() + UNIQUE_BUILD_SUFFIX));
+                if (current != null && !upgrade) {
+                    continue;
+                }
+                pending.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        if (upgrade) {
+                            upgradeToUnique(database, spec, current);
+                        } else {
+                            database.getCollection(spec.collection).createIndex(spec.keys, spec.options);
+                        }
+                    } catch (RuntimeException e) {
+                        throw new SchemaException("Could not build index " + spec.options.getName()
+                                + " on " + spec.collection + ": " + e.getMessage(), e);
+                    }
+                }, executor));
+            }
+            return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]));
+        });
+
+        done.whenComplete((result, error) -> executor.shutdown());
+        return done;
+    }
+
+    // Removes the duplicates first, which the old index allowed, then builds the unique index
+    // under a temporary name with the keys reversed (Mongo won't hold two indexes on the same
+    // keys), so lookups keep an index and uniqueness holds from then on. Every step can be
+    // repeated, so an upgrade that stops is finished on the next start.
+    private static void upgradeToUnique(MongoDatabase database, IndexSpec spec, Document current) {
+        MongoCollection<Document> collection = database.getCollection(spec.collection);
+        String name = spec.options.getName();
+        boolean replace = current == null || !current.getBoolean("unique", false);
+        if (replace) {
+            DuplicateEntryCleanup.run(database, spec.collection);
+        }
+
+        BsonDocument keys = spec.keys.toBsonDocument();
+        List<String> fields = new ArrayList<>(keys.keySet());
+        Collections.reverse(fields);
+        BsonDocument reversed = new BsonDocument();
+        for (String field : fields) {
+            reversed.append(field, keys.get(field));
+        }
+        collection.createIndex(reversed, new IndexOptions().name(name + UNIQUE_BUILD_SUFFIX).unique(true));
+
+        if (replace) {
+            if (current != null) {
+                collection.dropIndex(name);
+            }
+            collection.createIndex(spec.keys, spec.options);
+        }
+        collection.dropIndex(name + UNIQUE_BUILD_SUFFIX);
+    }
+}
@@ -0,0 +1,93 @@
+package org.example;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+// LRU cache of search result rows keyed on the normalized search term, bounded by entry count
+// and age. Writers invalidate exactly the entries their change could affect.
+public class SearchResultCache {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    private static final class Entry {
+        final List<Object[]> rows;
+        final long createdAt;
+
+        Entry(List<Object[]> rows, long createdAt) {
+            this.rows = rows;
+            this.createdAt = createdAt;
+        }
+    }
+
+    public SearchResultCache(int maxEntries, long ttlMillis) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public static String normalize(String term) {
+        return String.join(" ", MovieSearchIndex.tokenize(term));
+    }
+
+    public synchronized List<Object[]> get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && System.currentTimeMillis() - entry.createdAt > ttlMillis) {
+            entries.remove(key);
+            evictions++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.rows;
+    }
+
+    public synchronized void put(String key, List<Object[]> rows) {
+        entries.put(key, new Entry(Collections.unmodifiableList(new ArrayList<>(rows)),
+                System.currentTimeMillis()));
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    // Drops every entry whose search term matches the predicate
+    public synchronized void invalidateTerms(Predicate<String> affected) {
+        entries.keySet().removeIf(key -> {
+            boolean remove = affected.test(key);
+            if (remove) {
+                invalidations++;
+            }
+            return remove;
+        });
+    }
+
+    // Drops every entry that has a row for this movie id (column 0)
+    public synchronized void invalidateMovie(Object movieId) {
+        entries.values().removeIf(entry -> {
+            for (Object[] row : entry.rows) {
+                if (movieId.equals(row[0])) {
+                    invalidations++;
+                    return true;
+                }
+            }
+            return false;
+        });
+    }
+
+    public synchronized String stats() {
+        long lookups = hits + misses;
+        return String.format("Search cache: %d/%d entries, %d hits, %d misses (%.0f%% hit rate), "
+                        + "%d evictions, %d invalidations",
+                entries.size(), maxEntries, hits, misses,
+                lookups == 0 ? 0.0 : hits * 100.0 / lookups, evictions, invalidations);
+    }
+}
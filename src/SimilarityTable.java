@@ -0,0 +1,119 @@
+package org.example;
+
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.*;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+
+import static com.mongodb.client.model.Filters.*;
+
+// The recommender's item-item neighbour lists stored in Mongo, one document per movie:
+// {_id: movieId, neighbors: [movieId...], similarities: [double...], builtAt}. The movie server,
+// or this class run as a job, builds the model once from all of Ratings and writes the table;
+// desktop clients then score a user from their own ratings and the rows of the movies they
+// rated, instead of every client reading all of Ratings to build its own model.
+//
+// Usage: SimilarityTable [mongoUri]   (rebuilds the table; schedule it to pick up new ratings)
+public final class SimilarityTable {
+    public static final String COLLECTION = "Similarities";
+    private static final int BATCH_SIZE = 500;
+
+    private SimilarityTable() {
+    }
+
+    public static void main(String[] args) {
+        String uri = args.length > 0 ? args[0] : "mongodb://localhost:27017";
+        try (MongoClient mongoClient = MongoClients.create(uri)) {
+            MongoDatabase database = mongoClient.getDatabase("Movie-Browser");
+            ItemRecommender recommender = new ItemRecommender(Runtime.getRuntime().availableProcessors());
+            recommender.load(database.getCollection("Ratings"));
+            long written = write(database, recommender);
+            System.out.println("Wrote neighbours for " + written + " movies");
+        }
+    }
+
+    // Replaces every row, then removes rows the model no longer has, so readers never see an
+    // empty table while it is rewritten
+    public static long write(MongoDatabase database, ItemRecommender recommender) {
+        MongoCollection<Document> table = database.getCollection(COLLECTION);
+        Date builtAt = new Date();
+        List<WriteModel<Document>> batch = new ArrayList<>();
+        long[] written = {0};
+        recommender.exportNeighbors(row -> {
+            batch.add(new ReplaceOneModel<>(eq("_id", row.get("_id")), row.append("builtAt", builtAt),
+                    new ReplaceOptions().upsert(true)));
+            if (batch.size() == BATCH_SIZE) {
+                written[0] += flush(table, batch);
+            }
+        });
+        if (!batch.isEmpty()) {
+            written[0] += flush(table, batch);
+        }
+        table.deleteMany(lt("builtAt", builtAt));
+        return written[0];
+    }
+
+    private static int flush(MongoCollection<Document> table, List<WriteModel<Document>> batch) {
+        int size = batch.size();
+        table.bulkWrite(batch, new BulkWriteOptions().ordered(false));
+        batch.clear();
+        return size;
+    }
+
+    // Same scoring as ItemRecommender.recommend: a weighted sum of the user's mean-centred
+    // ratings over each rated movie's neighbours, damped so one weak neighbour can't win.
+    // Empty when the table hasn't been written or the user has rated nothing with neighbours.
+    public static List<ObjectId> recommend(MongoCollection<Document> ratings, MongoCollection<Document> table,
+                                           ObjectId userId, int limit) {
+        Map<ObjectId, Integer> rated = new HashMap<>();
+        long sum = 0;
+        for (Document rating : ratings.find(eq("userId", userId))
+                .projection(Projections.fields(Projections.include("movieId", "rating"), Projections.excludeId()))) {
+            Number value = rating.get("rating", Number.class);
+            if (value != null) {
+                rated.put(rating.getObjectId("movieId"), value.intValue());
+                sum += value.intValue();
+            }
+        }
+        if (rated.isEmpty()) {
+            return Collections.emptyList();
+        }
+        float mean = (float) sum / rated.size();
+
+        Map<ObjectId, float[]> scores = new HashMap<>();
+        for (Document row : table.find(in("_id", rated.keySet()))) {
+            float centred = rated.get(row.getObjectId("_id")) - mean;
+            List<ObjectId> neighbors = row.getList("neighbors", ObjectId.class);
+            List<Double> similarities = row.getList("similarities", Double.class);
+            for (int k = 0; k < neighbors.size(); k++) {
+                ObjectId movieId = neighbors.get(k);
+                if (rated.containsKey(movieId)) {
+                    continue;
+                }
+                float similarity = similarities.get(k).floatValue();
+                float[] score = scores.computeIfAbsent(movieId, id -> new float[2]);
+                score[0] += similarity * centred;
+                score[1] += similarity;
+            }
+        }
+
+        List<Map.Entry<ObjectId, Float>> ranked = new ArrayList<>();
+        for (Map.Entry<ObjectId, float[]> entry : scores.entrySet()) {
+            float score = entry.getValue()[0] / (entry.getValue()[1] + 1f);
+            if (score > 0) {
+                ranked.add(new AbstractMap.SimpleEntry<>(entry.getKey(), score));
+            }
+        }
+        ranked.sort(Map.Entry.<ObjectId, Float>comparingByValue().reversed());
+        List<ObjectId> ids = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < limit && i < ranked.size(); i++) {
+            ids.add(ranked.get(i).getKey());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,153 @@
+package org.example;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+// Read-only MovieRepository over a CatalogSnapshot, used when MongoDB can't be reached.
+// Browsing and search work; anything personal or any write is refused.
+public class SnapshotMovieRepository implements MovieRepository {
+    private final CatalogSnapshot snapshot;
+    private final MovieSearchIndex searchIndex = new MovieSearchIndex();
+    private final SortedOrders sortedOrders = new SortedOrders();
+    // The snapshot never changes, so counts only age out to bound the cache
+    private final FacetCache facetCache = new FacetCache(64, 60 * 60 * 1000);
+
+    public SnapshotMovieRepository(CatalogSnapshot snapshot) {
+        this.snapshot = snapshot;
+        Thread indexBuilder = new Thread(() -> {
+            for (int row = 0; row < snapshot.size(); row++) {
+                searchIndex.add(snapshot.movie(row));
+            }
+            searchIndex.markReady();
+        }, "snapshot-index-build");
+        indexBuilder.setDaemon(true);
+        indexBuilder.start();
+    }
+
+    @Override
+    public long countMovies(FacetFilter filter) {
+        return filter.isEmpty() ? snapshot.size() : facets(filter).total();
+    }
+
+    @Override
+    public FacetCounts facets(FacetFilter filter) {
+        FacetCounts counts = facetCache.get(filter);
+        if (counts == null) {
+            counts = FacetCounts.scan(snapshot.size(), snapshot::movieRow, filter);
+            facetCache.put(filter, counts);
+        }
+        return counts;
+    }
+
+    @Override
+    public List<MovieRow> moviesAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        if (!sort.equals(MovieSort.DEFAULT)) {
+            int[] order = sortedOrders.get(sort, snapshot.size(), snapshot::movieRow);
+            return SortedOrders.page(order, snapshot::movieRow, sort, filter, after, limit);
+        }
+        List<MovieRow> movies = new ArrayList<>(limit);
+        for (int row = snapshot.firstAfter(after == null ? null : after.id());
+             row < snapshot.size() && movies.size() < limit; row++) {
+            MovieRow movie = snapshot.movieRow(row);
+            if (filter.matches(movie)) {
+                movies.add(movie);
+            }
+        }
+        return movies;
+    }
+
+    @Override
+    public List<MovieRow> movieKeysAfter(MovieSort sort, FacetFilter filter, MovieRow after, int limit) {
+        return moviesAfter(sort, filter, after, limit);
+    }
+
+    @Override
+    public boolean isSearchIndexed() {
+        return searchIndex.isReady();
+    }
+
+    @Override
+    public void search(String term, int limit, Consumer<MovieRow> sink) {
+        if (searchIndex.isReady()) {
+            for (ObjectId id : searchIndex.search(term, limit)) {
+                int row = snapshot.find(id);
+                if (row >= 0) {
+                    sink.accept(snapshot.movieRow(row));
+                }
+            }
+            return;
+        }
+
+        // Index still building: plain substring scan of the mapped titles
+        String needle = term.toLowerCase(Locale.ROOT);
+        int found = 0;
+        for (int row = 0; row < snapshot.size() && found < limit; row++) {
+            MovieRow movie = snapshot.movieRow(row);
+            if (movie.title().toLowerCase(Locale.ROOT).contains(needle)) {
+                sink.accept(movie);
+                found++;
+            }
+        }
+    }
+
+    @Override
+    public double averageRating(ObjectId movieId) {
+        int row = snapshot.find(movieId);
+        return row < 0 ? 0.0 : snapshot.movieRow(row).averageRating();
+    }
+
+    @Override
+    public void topRated(String genre, int minVotes, int limit, Consumer<MovieRow> sink) {
+        SortedOrders.topRated(snapshot.size(), snapshot::movieRow, genre, minVotes, limit).forEach(sink);
+    }
+
+    @Override
+    public List<String> genres() {
+        return snapshot.genres();
+    }
+
+    @Override
+    public void watchlist(ObjectId userId, Consumer<MovieRow> sink) {
+        throw readOnly();
+    }
+
+    @Override
+    public void ratedMovies(ObjectId userId, Consumer<MovieRow> sink) {
+        throw readOnly();
+    }
+
+    @Override
+    public void recommended(ObjectId userId, int limit, Consumer<MovieRow> sink) {
+        throw readOnly();
+    }
+
+    @Override
+    public ObjectId addMovie(Document movie) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean addToWatchlist(ObjectId userId, ObjectId movieId) {
+        throw readOnly();
+    }
+
+    @Override
+    public boolean addRating(ObjectId userId, ObjectId movieId, int rating, String review) {
+        throw readOnly();
+    }
+
+    // Reviews aren't part of the snapshot
+    @Override
+    public List<Review> reviews(ObjectId movieId, ObjectId before, int limit) {
+        throw readOnly();
+    }
+
+    private static UnsupportedOperationException readOnly() {
+        return new UnsupportedOperationException("The database is unreachable; browsing is read-only");
+    }
+}
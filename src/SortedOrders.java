@@ -0,0 +1,78 @@
+package org.example;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+// Sorted permutations of a catalog held in row-indexed arrays, for the backends that can't ask
+// Mongo to sort. Each order is built on first use and kept until clear().
+class SortedOrders {
+    private final Map<MovieSort, int[]> orders = new HashMap<>();
+
+    synchronized int[] get(MovieSort sort, int size, IntFunction<MovieRow> rowAt) {
+        int[] order = orders.get(sort);
+        if (order == null || order.length != size) {
+            MovieRow[] rows = new MovieRow[size];
+            Integer[] positions = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                rows[i] = rowAt.apply(i);
+                positions[i] = i;
+            }
+            Comparator<MovieRow> comparator = sort.comparator();
+            Arrays.sort(positions, (a, b) -> comparator.compare(rows[a], rows[b]));
+            order = new int[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = positions[i];
+            }
+            orders.put(sort, order);
+        }
+        return order;
+    }
+
+    synchronized void clear() {
+        orders.clear();
+    }
+
+    // Up to limit rows matching the filter following after (null for the beginning) in the
+    // sorted order
+    static List<MovieRow> page(int[] order, IntFunction<MovieRow> rowAt, MovieSort sort, FacetFilter filter,
+                               MovieRow after, int limit) {
+        Comparator<MovieRow> comparator = sort.comparator();
+        int low = 0;
+        int high = order.length;
+        while (after != null && low < high) {
+            int mid = (low + high) >>> 1;
+            if (comparator.compare(rowAt.apply(order[mid]), after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<MovieRow> rows = new ArrayList<>(Math.min(limit, order.length - low));
+        for (int i = low; i < order.length && rows.size() < limit; i++) {
+            MovieRow row = rowAt.apply(order[i]);
+            if (filter.matches(row)) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    // Best rated first among movies with enough votes, optionally in one genre
+    static List<MovieRow> topRated(int size, IntFunction<MovieRow> rowAt, String genre, int minVotes, int limit) {
+        Comparator<MovieRow> best = new MovieSort(MovieSort.Key.RATING, true).comparator();
+        PriorityQueue<MovieRow> top = new PriorityQueue<>(best.reversed());
+        for (int i = 0; i < size; i++) {
+            MovieRow row = rowAt.apply(i);
+            if (row.ratingCount() < minVotes || (genre != null && !genre.equals(row.genre()))) {
+                continue;
+            }
+            top.add(row);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<MovieRow> rows = new ArrayList<>(top);
+        rows.sort(best);
+        return rows;
+    }
+}
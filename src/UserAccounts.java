@@ -0,0 +1,12 @@
+package org.example;
+
+import org.bson.types.ObjectId;
+
+// Logging in and signing up, served by Mongo directly or through the movie server
+public interface UserAccounts {
+    // Checks the credentials and fills the session state; the user's id, or null if nobody matches
+    ObjectId login(String username, String password, UserState state);
+
+    // The new user's id, or null if the username or email is already taken
+    ObjectId signup(String username, String password, String email);
+}
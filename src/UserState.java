@@ -0,0 +1,72 @@
+package org.example;
+
+import org.bson.types.ObjectId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// What the logged-in user has watchlisted and rated, loaded once at login and kept current by
+// the write paths, so duplicate checks, row markers and the two personal views need no queries.
+// Membership is held in ObjectIdIndex sets; the personal views keep their table rows.
+public class UserState {
+    private final Function<MovieRow, Object[]> rowMapper;
+    private final ObjectIdIndex watchlisted = new ObjectIdIndex();
+    private final ObjectIdIndex rated = new ObjectIdIndex();
+    // Indexed by the dense id from rated
+    private final IntList ratings = new IntList();
+    private final List<Object[]> watchlistRows = new ArrayList<>();
+    private final List<Object[]> ratedRows = new ArrayList<>();
+
+    public UserState(Function<MovieRow, Object[]> rowMapper) {
+        this.rowMapper = rowMapper;
+    }
+
+    public void addWatchlisted(MovieRow movie) {
+        addWatchlisted(movie.id(), rowMapper.apply(movie));
+    }
+
+    public synchronized void addWatchlisted(ObjectId movieId, Object[] row) {
+        if (watchlisted.find(movieId) < 0) {
+            watchlisted.getOrAdd(movieId);
+            watchlistRows.add(row.clone());
+        }
+    }
+
+    // The mapped row of a rated movie already shows the user's own score
+    public void addRated(MovieRow movie) {
+        addRated(movie.id(), rowMapper.apply(movie), movie.userRating() == null ? 0 : movie.userRating());
+    }
+
+    public synchronized void addRated(ObjectId movieId, Object[] row, int rating) {
+        if (rated.find(movieId) < 0) {
+            rated.getOrAdd(movieId);
+            ratings.add(rating);
+            Object[] copy = row.clone();
+            copy[5] = rating;
+            ratedRows.add(copy);
+        }
+    }
+
+    public synchronized boolean isWatchlisted(ObjectId movieId) {
+        return watchlisted.find(movieId) >= 0;
+    }
+
+    public synchronized boolean isRated(ObjectId movieId) {
+        return rated.find(movieId) >= 0;
+    }
+
+    // The user's score for the movie, or null
+    public synchronized Integer rating(ObjectId movieId) {
+        int movie = rated.find(movieId);
+        return movie < 0 ? null : ratings.get(movie);
+    }
+
+    public synchronized List<Object[]> watchlistRows() {
+        return new ArrayList<>(watchlistRows);
+    }
+
+    public synchronized List<Object[]> ratedRows() {
+        return new ArrayList<>(ratedRows);
+    }
+}
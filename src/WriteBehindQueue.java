@@ -0,0 +1,242 @@
+package org.example;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.mongodb.client.model.Filters.eq;
+
+// Buffers writes locally and applies them in the background as unordered bulkWrites, one per
+// collection per batch. Writes that share a key while still queued are coalesced into the
+// first one, failed writes are retried a bounded number of times, and whatever is still
+// pending gets flushed when the JVM exits.
+public class WriteBehindQueue {
+    private static final int BATCH_SIZE = 500;
+    private static final long FLUSH_INTERVAL_MS = 200;
+    private static final int MAX_ATTEMPTS = 3;
+
+    private static final class PendingWrite {
+        final String key;
+        final String collection;
+        final WriteModel<Document> model;
+        final Runnable onUpserted;
+        // The _id an upsert inserts with, so a retry can tell whether an earlier attempt inserted
+        final ObjectId upsertId;
+        int attempts;
+        String lastError;
+        // Set when an attempt failed without saying which writes it applied
+        boolean mayHaveApplied;
+
+        PendingWrite(String key, String collection, WriteModel<Document> model, Runnable onUpserted,
+                     ObjectId upsertId) {
+            this.key = key;
+            this.collection = collection;
+            this.model = model;
+            this.onUpserted = onUpserted;
+            this.upsertId = upsertId;
+        }
+    }
+
+    private final MongoDatabase database;
+    private final LinkedBlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Map<String, PendingWrite> queuedByKey = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private volatile String lastFailure;
+    private final Thread flusher;
+
+    public WriteBehindQueue(MongoDatabase database) {
+        this.database = database;
+        this.flusher = new Thread(this::run, "write-behind");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> flush(5000), "write-behind-flush"));
+    }
+
+    // Returns false when an identical write is already waiting; key may be null to never coalesce.
+    // onUpserted runs once the write is known to have inserted; for an UpdateOneModel the insert
+    // is given an _id here so that is still known after a retry whose first attempt landed.
+    public boolean enqueue(String key, String collection, WriteModel<Document> model, Runnable onUpserted) {
+        ObjectId upsertId = null;
+        if (onUpserted != null && model instanceof UpdateOneModel && ((UpdateOneModel<Document>) model).getUpdate() != null) {
+            UpdateOneModel<Document> update = (UpdateOneModel<Document>) model;
+            upsertId = new ObjectId();
+            model = new UpdateOneModel<>(update.getFilter(),
+                    Updates.combine(update.getUpdate(), Updates.setOnInsert("_id", upsertId)), update.getOptions());
+        }
+        PendingWrite write = new PendingWrite(key, collection, model, onUpserted, upsertId);
+        if (key != null && queuedByKey.putIfAbsent(key, write) != null) {
+            return false;
+        }
+        pending.incrementAndGet();
+        queue.add(write);
+        return true;
+    }
+
+    public int pendingCount() {
+        return pending.get();
+    }
+
+    public int failedCount() {
+        return failed.get();
+    }
+
+    // Which write was dropped most recently and why, or null if none has been
+    public String lastFailure() {
+        return lastFailure;
+    }
+
+    // Waits up to timeoutMs for everything queued so far to be written
+    public boolean flush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return pending.get() == 0;
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            try {
+                PendingWrite first = queue.poll(FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+
+                Map<String, List<PendingWrite>> byCollection = new LinkedHashMap<>();
+                for (PendingWrite write : batch) {
+                    if (write.key != null) {
+                        queuedByKey.remove(write.key, write);
+                    }
+                    byCollection.computeIfAbsent(write.collection, c -> new ArrayList<>()).add(write);
+                }
+                batch.clear();
+                for (Map.Entry<String, List<PendingWrite>> group : byCollection.entrySet()) {
+                    write(group.getKey(), group.getValue());
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void write(String collection, List<PendingWrite> writes) {
+        List<WriteModel<Document>> models = new ArrayList<>(writes.size());
+        for (PendingWrite write : writes) {
+            models.add(write.model);
+        }
+
+        BulkWriteResult result;
+        Set<Integer> retry = new HashSet<>();
+        try {
+            result = database.getCollection(collection)
+                    .bulkWrite(models, new BulkWriteOptions().ordered(false));
+        } catch (MongoBulkWriteException e) {
+            result = e.getWriteResult();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                // A duplicate key means a concurrent client already wrote the same entry
+                if (ErrorCategory.fromErrorCode(error.getCode()) != ErrorCategory.DUPLICATE_KEY) {
+                    retry.add(error.getIndex());
+                    writes.get(error.getIndex()).lastError = error.getMessage();
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            for (PendingWrite write : writes) {
+                write.lastError = e.getMessage();
+                write.mayHaveApplied = true;
+                retryOrDrop(write);
+            }
+            // Back off so a lost connection isn't hammered
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        Set<Integer> upserted = new HashSet<>();
+        for (BulkWriteUpsert upsert : result.getUpserts()) {
+            upserted.add(upsert.getIndex());
+            upserted(writes.get(upsert.getIndex()));
+        }
+        for (int i = 0; i < writes.size(); i++) {
+            PendingWrite write = writes.get(i);
+            if (retry.contains(i)) {
+                retryOrDrop(write);
+                continue;
+            }
+            // A retry finds what an earlier attempt inserted and reports no upsert, so look for
+            // that attempt's _id before deciding the callback's write never happened
+            if (!upserted.contains(i) && write.mayHaveApplied && write.upsertId != null
+                    && insertedEarlier(database.getCollection(collection), write)) {
+                upserted(write);
+            }
+            pending.decrementAndGet();
+        }
+    }
+
+    private void upserted(PendingWrite write) {
+        if (write.onUpserted != null) {
+            try {
+                write.onUpserted.run();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private boolean insertedEarlier(MongoCollection<Document> collection, PendingWrite write) {
+        try {
+            return collection.find(eq("_id", write.upsertId)).projection(new Document("_id", 1)).first() != null;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    private void retryOrDrop(PendingWrite write) {
+        if (++write.attempts < MAX_ATTEMPTS) {
+            // The key was released when the batch was taken; claim it again so later writes
+            // coalesce into the retry. If one was queued meanwhile it does the same write, unless
+            // this one may already have inserted: only this one can still confirm that.
+            if (write.key != null && queuedByKey.putIfAbsent(write.key, write) != null
+                    && !(write.mayHaveApplied && write.upsertId != null)) {
+                pending.decrementAndGet();
+                return;
+            }
+            queue.add(write);
+        } else {
+            // Counted and shown in the status bar and the diagnostics dialog
+            lastFailure = "Dropped a write to " + write.collection + " after " + MAX_ATTEMPTS
+                    + " attempts: " + write.lastError;
+            failed.incrementAndGet();
+            pending.decrementAndGet();
+        }
+    }
+}